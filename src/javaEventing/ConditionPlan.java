@@ -0,0 +1,186 @@
+/*
+   Copyright 2011 Espen Skjervold
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package javaEventing;
+
+import javaEventing.interfaces.Condition;
+import javaEventing.interfaces.Event;
+import javaEventing.internals.EventSubscription;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The conditions of the subscribers of one event class, compiled together. Field tests of declarative conditions are
+ * shared between subscribers, so each distinct field is read, and each distinct test evaluated, at most once per event.
+ * Other conditions are called as they are.
+ */
+class ConditionPlan {
+
+    private final Node[] nodes;                   // per subscription, null if it has no condition
+    private final String[] fields;
+    private final int testCount;
+
+    ConditionPlan(EventSubscription[] subscriptions) {
+        Map<String, Integer> fieldIndexes = new HashMap<String, Integer>();
+        Map<DeclarativeCondition.FieldTest, Integer> testIndexes = new HashMap<DeclarativeCondition.FieldTest, Integer>();
+        List<String> fieldList = new ArrayList<String>();
+
+        nodes = new Node[subscriptions.length];
+        for (int i = 0; i < subscriptions.length; i++) {
+            if (subscriptions[i].getCondition() != null)
+                nodes[i] = compile(subscriptions[i].getCondition(), fieldIndexes, fieldList, testIndexes);
+        }
+        fields = fieldList.toArray(new String[fieldList.size()]);
+        testCount = testIndexes.size();
+    }
+
+    private Node compile(Condition condition, Map<String, Integer> fieldIndexes, List<String> fieldList,
+            Map<DeclarativeCondition.FieldTest, Integer> testIndexes) {
+        if (condition instanceof DeclarativeCondition.FieldTest) {
+            DeclarativeCondition.FieldTest fieldTest = (DeclarativeCondition.FieldTest) condition;
+            Integer fieldIndex = fieldIndexes.get(fieldTest.field);
+            if (fieldIndex == null) {
+                fieldIndex = fieldList.size();
+                fieldIndexes.put(fieldTest.field, fieldIndex);
+                fieldList.add(fieldTest.field);
+            }
+            Integer testIndex = testIndexes.get(fieldTest);
+            if (testIndex == null) {
+                testIndex = testIndexes.size();
+                testIndexes.put(fieldTest, testIndex);
+            }
+            return new TestNode(fieldTest, fieldIndex, testIndex);
+        }
+
+        if (condition instanceof DeclarativeCondition.Combination) {
+            DeclarativeCondition.Combination combination = (DeclarativeCondition.Combination) condition;
+            Node[] children = new Node[combination.conditions.length];
+            for (int i = 0; i < children.length; i++)
+                children[i] = compile(combination.conditions[i], fieldIndexes, fieldList, testIndexes);
+            return new CombinationNode(combination.all, children);
+        }
+
+        return new OpaqueNode(condition);
+    }
+
+    /**
+     * Returns true if the subscription at the given index should receive the event. A subscription with a condition
+     * never receives events triggered without a conditional expression.
+     * @param evaluation Holds the results shared between the subscriptions during one event; begin(...) must be called first.
+     */
+    boolean matches(int subscriptionIndex, Object sender, Event event, Object conditionalExpression, Evaluation evaluation) {
+        Node node = nodes[subscriptionIndex];
+        if (node == null)
+            return true;
+        return conditionalExpression != null && node.matches(this, sender, event, conditionalExpression, evaluation);
+    }
+
+    /**
+     * The results of field reads and tests during the evaluation of one event. Reused from event to event: instead of
+     * clearing the results, a new event bumps a generation number, so reusing an evaluation allocates nothing.
+     */
+    static class Evaluation {
+        private int generation;
+        private int[] fieldGenerations = new int[0];
+        private Object[] fieldValues = new Object[0];
+        private int[] testGenerations = new int[0];
+        private boolean[] testResults = new boolean[0];
+
+        void begin(ConditionPlan plan) {
+            if (++generation == 0) {                      // wrapped around, old generations could look current
+                Arrays.fill(fieldGenerations, 0);
+                Arrays.fill(testGenerations, 0);
+                generation = 1;
+            }
+            if (fieldGenerations.length < plan.fields.length) {
+                fieldGenerations = new int[plan.fields.length];
+                fieldValues = new Object[plan.fields.length];
+            }
+            if (testGenerations.length < plan.testCount) {
+                testGenerations = new int[plan.testCount];
+                testResults = new boolean[plan.testCount];
+            }
+        }
+
+        /**
+         * Drops the field values read during the last event, so they are not kept from being garbage collected.
+         */
+        void end() {
+            Arrays.fill(fieldValues, null);
+        }
+    }
+
+    private abstract static class Node {
+        abstract boolean matches(ConditionPlan plan, Object sender, Event event, Object conditionalExpression, Evaluation evaluation);
+    }
+
+    private static class TestNode extends Node {
+        private final DeclarativeCondition.FieldTest fieldTest;
+        private final int fieldIndex;
+        private final int testIndex;
+
+        TestNode(DeclarativeCondition.FieldTest fieldTest, int fieldIndex, int testIndex) {
+            this.fieldTest = fieldTest;
+            this.fieldIndex = fieldIndex;
+            this.testIndex = testIndex;
+        }
+
+        boolean matches(ConditionPlan plan, Object sender, Event event, Object conditionalExpression, Evaluation evaluation) {
+            if (evaluation.testGenerations[testIndex] != evaluation.generation) {
+                if (evaluation.fieldGenerations[fieldIndex] != evaluation.generation) {
+                    evaluation.fieldValues[fieldIndex] = DeclarativeCondition.getFieldValue(conditionalExpression, plan.fields[fieldIndex]);
+                    evaluation.fieldGenerations[fieldIndex] = evaluation.generation;
+                }
+                evaluation.testResults[testIndex] = fieldTest.test(evaluation.fieldValues[fieldIndex]);
+                evaluation.testGenerations[testIndex] = evaluation.generation;
+            }
+            return evaluation.testResults[testIndex];
+        }
+    }
+
+    private static class CombinationNode extends Node {
+        private final boolean all;
+        private final Node[] children;
+
+        CombinationNode(boolean all, Node[] children) {
+            this.all = all;
+            this.children = children;
+        }
+
+        boolean matches(ConditionPlan plan, Object sender, Event event, Object conditionalExpression, Evaluation evaluation) {
+            for (Node child : children) {
+                if (child.matches(plan, sender, event, conditionalExpression, evaluation) != all)
+                    return !all;
+            }
+            return all;
+        }
+    }
+
+    private static class OpaqueNode extends Node {
+        private final Condition condition;
+
+        OpaqueNode(Condition condition) {
+            this.condition = condition;
+        }
+
+        boolean matches(ConditionPlan plan, Object sender, Event event, Object conditionalExpression, Evaluation evaluation) {
+            return condition.matches(sender, event, conditionalExpression);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+   Copyright 2011 Espen Skjervold
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package javaEventing;
+
+import javaEventing.interfaces.CorrelatedEvent;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A basic CorrelatedEvent. Requests get a new correlation id, unique within the JVM; replies are created with the
+ * correlation id of the request they answer.
+ */
+public class CorrelatedEventObject extends EventObject implements CorrelatedEvent {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final AtomicLong nextCorrelationId = new AtomicLong();
+
+    private final Object correlationId;
+
+    /**
+     * Creates a request with a new correlation id.
+     */
+    public CorrelatedEventObject(Object payload) {
+        this(payload, Long.valueOf(nextCorrelationId.incrementAndGet()));
+    }
+
+    /**
+     * Creates an event with the given correlation id, typically a reply to the request with that id.
+     */
+    public CorrelatedEventObject(Object payload, Object correlationId) {
+        super(payload);
+        this.correlationId = correlationId;
+    }
+
+    public Object getCorrelationId() {
+        return correlationId;
+    }
+}
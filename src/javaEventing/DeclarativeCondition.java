@@ -0,0 +1,213 @@
+/*
+   Copyright 2011 Espen Skjervold
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package javaEventing;
+
+import javaEventing.interfaces.Condition;
+import javaEventing.interfaces.Event;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A condition built from field tests on the conditional expression, such as fieldEquals("region", "EU"), combined with
+ * and(...) and or(...). A field is looked up in the conditional expression as a Map key, a getter or a public field.
+ * Unlike an ordinary Condition, the EventManagerInstance can see inside a declarative condition: the conditions of all
+ * listeners of an event class are compiled together, so that each distinct field test is evaluated once per event,
+ * however many listeners share it.
+ */
+public abstract class DeclarativeCondition implements Condition {
+
+    private static final Object[] NO_ARGUMENTS = new Object[0];
+    private static final Map<Class<?>, Map<String, Object>> accessors = new ConcurrentHashMap<Class<?>, Map<String, Object>>();
+    private static final Object NO_ACCESSOR = new Object();
+
+    DeclarativeCondition() {
+    }
+
+    /**
+     * Matches when the field equals the value.
+     */
+    public static DeclarativeCondition fieldEquals(String field, Object value) {
+        return new FieldTest(field, FieldTest.EQUALS, value, null, null);
+    }
+
+    /**
+     * Matches when the field is between min and max, both inclusive. Either bound may be null for an open range.
+     */
+    public static DeclarativeCondition fieldBetween(String field, Comparable<?> min, Comparable<?> max) {
+        return new FieldTest(field, FieldTest.BETWEEN, min, max, null);
+    }
+
+    /**
+     * Matches when the field equals one of the values.
+     */
+    public static DeclarativeCondition fieldIn(String field, Object... values) {
+        return new FieldTest(field, FieldTest.IN, null, null, new HashSet<Object>(Arrays.asList(values)));
+    }
+
+    /**
+     * Matches when all of the conditions match.
+     */
+    public static DeclarativeCondition and(DeclarativeCondition... conditions) {
+        return new Combination(true, conditions);
+    }
+
+    /**
+     * Matches when any of the conditions matches.
+     */
+    public static DeclarativeCondition or(DeclarativeCondition... conditions) {
+        return new Combination(false, conditions);
+    }
+
+    /**
+     * Returns the value of a field of the conditional expression, or null if it has no such field.
+     */
+    static Object getFieldValue(Object conditionalExpression, String field) {
+        if (conditionalExpression instanceof Map)
+            return ((Map<?, ?>) conditionalExpression).get(field);
+
+        Map<String, Object> classAccessors = accessors.get(conditionalExpression.getClass());
+        if (classAccessors == null) {
+            classAccessors = new ConcurrentHashMap<String, Object>();
+            accessors.put(conditionalExpression.getClass(), classAccessors);
+        }
+        Object accessor = classAccessors.get(field);
+        if (accessor == null) {
+            accessor = findAccessor(conditionalExpression.getClass(), field);
+            classAccessors.put(field, accessor);
+        }
+
+        try {
+            if (accessor instanceof Method)
+                return ((Method) accessor).invoke(conditionalExpression, NO_ARGUMENTS);
+            if (accessor instanceof Field)
+                return ((Field) accessor).get(conditionalExpression);
+            return null;
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not read field " + field + " of " + conditionalExpression.getClass().getName(), e);
+        }
+    }
+
+    private static Object findAccessor(Class<?> expressionClass, String field) {
+        String capitalized = Character.toUpperCase(field.charAt(0)) + field.substring(1);
+        for (String methodName : new String[] {"get" + capitalized, "is" + capitalized, field}) {
+            try {
+                Method method = expressionClass.getMethod(methodName);
+                method.setAccessible(true);
+                return method;
+            } catch (NoSuchMethodException e) {
+                // try the next naming convention
+            }
+        }
+        try {
+            return expressionClass.getField(field);
+        } catch (NoSuchFieldException e) {
+            return NO_ACCESSOR;
+        }
+    }
+
+    /**
+     * A test of a single field. Equal tests are evaluated once per event, however many conditions contain them.
+     */
+    static class FieldTest extends DeclarativeCondition {
+        static final int EQUALS = 0;
+        static final int BETWEEN = 1;
+        static final int IN = 2;
+
+        final String field;
+        private final int operator;
+        private final Object value;
+        private final Object max;
+        private final Set<Object> values;
+
+        FieldTest(String field, int operator, Object value, Object max, Set<Object> values) {
+            if (field == null || field.length() == 0)
+                throw new IllegalArgumentException("A field name is required");
+            this.field = field;
+            this.operator = operator;
+            this.value = value;
+            this.max = max;
+            this.values = values;
+        }
+
+        public boolean matches(Object sender, Event event, Object conditionalExpression) {
+            return conditionalExpression != null && test(getFieldValue(conditionalExpression, field));
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        boolean test(Object fieldValue) {
+            switch (operator) {
+                case EQUALS:
+                    return value == null ? fieldValue == null : value.equals(fieldValue);
+                case BETWEEN:
+                    if (!(fieldValue instanceof Comparable))
+                        return false;
+                    try {
+                        return (value == null || ((Comparable) value).compareTo(fieldValue) <= 0)
+                                && (max == null || ((Comparable) max).compareTo(fieldValue) >= 0);
+                    } catch (ClassCastException e) {
+                        return false;                             // a field of another type than the bounds is out of range
+                    }
+                default:
+                    return values.contains(fieldValue);
+            }
+        }
+
+        public boolean equals(Object other) {
+            if (!(other instanceof FieldTest))
+                return false;
+            FieldTest test = (FieldTest) other;
+            return field.equals(test.field) && operator == test.operator && equal(value, test.value) && equal(max, test.max)
+                    && equal(values, test.values);
+        }
+
+        public int hashCode() {
+            return (field.hashCode() * 31 + operator) * 31 + (value == null ? 0 : value.hashCode());
+        }
+
+        private static boolean equal(Object a, Object b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+
+    /**
+     * All, or any, of a number of conditions.
+     */
+    static class Combination extends DeclarativeCondition {
+        final boolean all;
+        final DeclarativeCondition[] conditions;
+
+        Combination(boolean all, DeclarativeCondition[] conditions) {
+            if (conditions.length == 0)
+                throw new IllegalArgumentException("At least one condition is required");
+            this.all = all;
+            this.conditions = conditions.clone();
+        }
+
+        public boolean matches(Object sender, Event event, Object conditionalExpression) {
+            for (DeclarativeCondition condition : conditions) {
+                if (condition.matches(sender, event, conditionalExpression) != all)
+                    return !all;
+            }
+            return all;
+        }
+    }
+}
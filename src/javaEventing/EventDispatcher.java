@@ -0,0 +1,335 @@
+/*
+   Copyright 2011 Espen Skjervold
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package javaEventing;
+
+import javaEventing.interfaces.Event;
+import javaEventing.interfaces.GenericEventListener;
+import javaEventing.interfaces.UndeliveredEventHandler;
+import javaEventing.internals.EventSubscription;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A dedicated thread delivering the events of one partition of event classes. Subscribers are resolved once per event class
+ * and kept in a cache only this thread touches, and are resolved again when the registry of the event manager has changed
+ * since. Listeners are called directly on the dispatcher thread, so they should return quickly and must not block.
+ * Events are queued in a fixed ring of reusable envelopes, so once warmed up, neither triggering nor delivering an event
+ * allocates memory. When the ring is full, triggering threads wait for the dispatcher to catch up, except dispatcher threads,
+ * which could end up waiting for themselves or for each other. They queue the event in an overflow list instead, delivered
+ * after the events they queued in the ring before, and before any they trigger later.
+ * When stopped, events still queued are handed to the undelivered event handler passed to shutdown(...), if any.
+ */
+class EventDispatcher extends Thread {
+
+    private static final int SPINS_BEFORE_PARKING = 1000;
+
+    private final EventManagerInstance eventManager;
+    private final Envelope[] ring;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();         // next position claimed by a triggering thread
+    private long head;                                        // next position delivered, only touched by the dispatcher
+    private volatile long completed;                          // number of events delivered, only written by the dispatcher
+    private final ConcurrentLinkedQueue<Overflow> overflow = new ConcurrentLinkedQueue<Overflow>();
+    private final AtomicLong overflowQueued = new AtomicLong();
+    private volatile long overflowCompleted;                  // number of overflowed events delivered, only written by the dispatcher
+    private final Map<Class<?>, EventManagerInstance.Subscribers> subscriberCache = new HashMap<Class<?>, EventManagerInstance.Subscribers>();
+    private final ConditionPlan.Evaluation evaluation = new ConditionPlan.Evaluation();
+    private volatile boolean parked;
+    private volatile boolean running = true;
+    private volatile UndeliveredEventHandler undeliveredHandler;
+    private volatile int undeliveredCount;
+
+    EventDispatcher(EventManagerInstance eventManager, String name, int capacity) {
+        super(name);
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0)
+            throw new IllegalArgumentException("capacity must be a power of two");
+
+        this.eventManager = eventManager;
+        this.mask = capacity - 1;
+        this.ring = new Envelope[capacity];
+        for (int i = 0; i < capacity; i++)
+            ring[i] = new Envelope(i);
+    }
+
+    /**
+     * Queues an event for delivery by this dispatcher. May be called from any thread.
+     */
+    void dispatch(Object sender, Event event, Object conditionalExpression, EventTracer.EventTrace trace) {
+        if (Thread.currentThread() instanceof EventDispatcher && !overflow.isEmpty()) {
+            queueOverflow(tail.get(), sender, event, conditionalExpression, trace);           // behind the events it overflowed before
+            return;
+        }
+
+        Envelope envelope;
+        long position;
+        long stalledSince = 0;
+        while (true) {
+            position = tail.get();
+            envelope = ring[(int) position & mask];
+            long sequence = envelope.sequence;
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1))
+                    break;
+            } else if (sequence < position) {                 // full, the envelope still holds an event from the previous lap
+                if (!running)
+                    return;
+                if (Thread.currentThread() instanceof EventDispatcher) {
+                    queueOverflow(position, sender, event, conditionalExpression, trace);
+                    return;
+                }
+                if (parked)
+                    LockSupport.unpark(this);
+                if (stalledSince == 0)
+                    stalledSince = System.nanoTime();
+                Thread.yield();
+            }
+        }
+
+        if (stalledSince != 0) {
+            ThresholdedProbe probe = eventManager.getThresholdedProbe();
+            if (probe != null)
+                probe.queueStalled(event.getClass(), System.nanoTime() - stalledSince);
+        }
+
+        envelope.sender = sender;
+        envelope.event = event;
+        envelope.conditionalExpression = conditionalExpression;
+        envelope.trace = trace;
+        envelope.sequence = position + 1;                     // publishes the fields above to the dispatcher
+
+        if (parked)
+            LockSupport.unpark(this);
+    }
+
+    /**
+     * Queues an event that did not fit in the ring, to be delivered once the events claimed before the given position have been.
+     */
+    private void queueOverflow(long position, Object sender, Event event, Object conditionalExpression, EventTracer.EventTrace trace) {
+        overflowQueued.incrementAndGet();
+        overflow.add(new Overflow(position, sender, event, conditionalExpression, trace));
+        if (parked)
+            LockSupport.unpark(this);
+    }
+
+    /**
+     * Stops the dispatcher after the event being delivered, if any. Queued events are not delivered.
+     */
+    void shutdown() {
+        shutdown(null);
+    }
+
+    /**
+     * Stops the dispatcher after the event being delivered, if any. Queued events are handed to the given handler.
+     * @param handler The handler of the undelivered events. May be null.
+     */
+    void shutdown(UndeliveredEventHandler handler) {
+        undeliveredHandler = handler;
+        running = false;
+        LockSupport.unpark(this);
+    }
+
+    /**
+     * Returns the number of events queued or being delivered.
+     */
+    long getPendingCount() {
+        return tail.get() - completed + overflowQueued.get() - overflowCompleted;
+    }
+
+    /**
+     * Returns the number of events delivered since the dispatcher was started.
+     */
+    long getCompletedCount() {
+        return completed + overflowCompleted;
+    }
+
+    /**
+     * Returns the number of queued events handed back when the dispatcher stopped.
+     */
+    int getUndeliveredCount() {
+        return undeliveredCount;
+    }
+
+    public void run() {
+        int spins = 0;
+        int batchSize = 0;
+        long batchStart = 0;
+        while (running) {
+            Overflow overflowed = overflow.peek();
+            if (overflowed != null && overflowed.position <= head) {
+                if (batchSize++ == 0 && eventManager.getThresholdedProbe() != null)
+                    batchStart = System.nanoTime();
+                overflow.poll();
+
+                if (overflowed.trace != null)
+                    overflowed.trace.dequeued();
+                deliver(overflowed.sender, overflowed.event, overflowed.conditionalExpression, overflowed.trace);
+                overflowCompleted = overflowCompleted + 1;
+                spins = 0;
+                continue;
+            }
+
+            Envelope envelope = ring[(int) head & mask];
+            if (envelope.sequence == head + 1) {
+                if (batchSize++ == 0 && eventManager.getThresholdedProbe() != null)
+                    batchStart = System.nanoTime();
+
+                Object sender = envelope.sender;
+                Event event = envelope.event;
+                Object conditionalExpression = envelope.conditionalExpression;
+                EventTracer.EventTrace trace = envelope.trace;
+                envelope.sender = null;
+                envelope.event = null;
+                envelope.conditionalExpression = null;
+                envelope.trace = null;
+                envelope.sequence = head + ring.length;       // hands the envelope back to the triggering threads for the next lap
+                head++;
+
+                if (trace != null)
+                    trace.dequeued();
+                deliver(sender, event, conditionalExpression, trace);
+                completed = head;
+                spins = 0;
+            } else if (batchSize > 0) {
+                ThresholdedProbe probe = eventManager.getThresholdedProbe();
+                if (probe != null && batchStart != 0)
+                    probe.batchDispatched(batchSize, System.nanoTime() - batchStart);
+                batchSize = 0;
+                batchStart = 0;
+            } else if (spins < SPINS_BEFORE_PARKING) {
+                spins++;
+            } else {
+                parked = true;
+                if (ring[(int) head & mask].sequence != head + 1 && overflow.isEmpty() && running)    // an event queued before parked was set would otherwise wait for the next one
+                    LockSupport.park(this);
+                parked = false;
+                spins = 0;
+            }
+        }
+        handBackQueuedEvents();
+    }
+
+    private void handBackQueuedEvents() {
+        UndeliveredEventHandler handler = undeliveredHandler;
+        Thread.interrupted();                                 // an interrupted listener must not make the handler fail, e.g. when writing to a channel
+        int undelivered = 0;
+        for (Envelope envelope = ring[(int) head & mask]; envelope.sequence == head + 1; envelope = ring[(int) head & mask]) {
+            try {
+                if (handler != null)
+                    handler.eventUndelivered(envelope.sender, envelope.event, envelope.conditionalExpression, null);
+            } catch (RuntimeException e) {
+                // a failing handler must not hide the remaining events
+            }
+            envelope.sender = null;
+            envelope.event = null;
+            envelope.conditionalExpression = null;
+            envelope.trace = null;
+            envelope.sequence = head + ring.length;
+            head++;
+            undelivered++;
+        }
+        for (Overflow overflowed = overflow.poll(); overflowed != null; overflowed = overflow.poll()) {
+            try {
+                if (handler != null)
+                    handler.eventUndelivered(overflowed.sender, overflowed.event, overflowed.conditionalExpression, null);
+            } catch (RuntimeException e) {
+                // a failing handler must not hide the remaining events
+            }
+            undelivered++;
+        }
+        undeliveredCount = undelivered;
+    }
+
+    private void deliver(Object sender, Event event, Object conditionalExpression, EventTracer.EventTrace trace) {
+        EventManagerInstance.Subscribers subscribers = getSubscribers(event.getClass());
+
+        if (subscribers.getLastValueCache() != null || subscribers.getEventHistory() != null)
+            subscribers = eventManager.recordEvent(sender, event, conditionalExpression);
+        notifySubscribers(sender, event, conditionalExpression, subscribers, trace);
+
+        if (eventManager.getEventManagerExtension() != null)
+            eventManager.getEventManagerExtension().afterTriggerEvent(sender, event, conditionalExpression);
+    }
+
+    /**
+     * Returns the cached subscribers of an event class, resolving them again if the registry has changed since they were cached.
+     */
+    private EventManagerInstance.Subscribers getSubscribers(Class<? extends Event> eventClass) {
+        EventManagerInstance.Subscribers subscribers = subscriberCache.get(eventClass);
+        if (subscribers == null || subscribers.getRegistryVersion() != eventManager.getRegistryVersion()) {
+            subscribers = eventManager.resolveSubscribers(eventClass);
+            subscriberCache.put(eventClass, subscribers);
+        }
+        return subscribers;
+    }
+
+    private void notifySubscribers(Object sender, Event event, Object conditionalExpression, EventManagerInstance.Subscribers subscribers,
+            EventTracer.EventTrace trace) {
+        EventSubscription[] subscriptions = subscribers.getSubscriptions();
+        evaluation.begin(subscribers.getConditionPlan());
+        for (int i = 0; i < subscriptions.length; i++) {
+            try {
+                if (subscribers.getConditionPlan().matches(i, sender, event, conditionalExpression, evaluation))
+                    invoke(subscriptions[i].getReceiver(), sender, event, trace);
+            } catch (RuntimeException e) {
+                // a failing listener or condition must not stop the delivery to the others, nor the dispatcher
+            }
+        }
+        evaluation.end();
+    }
+
+    private void invoke(GenericEventListener receiver, Object sender, Event event, EventTracer.EventTrace trace) {
+        eventManager.invokeListener(receiver, sender, event, trace == null ? null : trace.matched(receiver));
+    }
+
+    /**
+     * An event that did not fit in the ring, queued behind the events claimed before its position.
+     */
+    private static class Overflow {
+        final long position;
+        final Object sender;
+        final Event event;
+        final Object conditionalExpression;
+        final EventTracer.EventTrace trace;
+
+        Overflow(long position, Object sender, Event event, Object conditionalExpression, EventTracer.EventTrace trace) {
+            this.position = position;
+            this.sender = sender;
+            this.event = event;
+            this.conditionalExpression = conditionalExpression;
+            this.trace = trace;
+        }
+    }
+
+    /**
+     * A slot of the ring. Its sequence tells whose turn it is: equal to the position of the slot in the current lap, it is
+     * free for a triggering thread to fill; one higher, it holds an event for the dispatcher.
+     */
+    private static class Envelope {
+        volatile long sequence;
+        Object sender;
+        Event event;
+        Object conditionalExpression;
+        EventTracer.EventTrace trace;
+
+        Envelope(long sequence) {
+            this.sequence = sequence;
+        }
+    }
+}
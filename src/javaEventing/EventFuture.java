@@ -0,0 +1,191 @@
+/*
+   Copyright 2011 Espen Skjervold
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package javaEventing;
+
+import javaEventing.interfaces.Event;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The result of waiting asynchronously for an event. The future completes with the first matching event, or times out
+ * after the timeout given when it was created, or fails if the event it waits for can no longer arrive. Instead of blocking in get(), callers may add a CompletionListener,
+ * which is called once the future is done, so no thread has to be parked while waiting.
+ */
+public class EventFuture implements Future<Event> {
+
+    /**
+     * Implement this interface to be notified when an EventFuture is done, whether completed, timed out, failed or cancelled.
+     */
+    public interface CompletionListener {
+        void futureDone(EventFuture future);
+    }
+
+    private static final int PENDING = 0;
+    private static final int COMPLETING = 1;          // claimed by complete(...) or fail(...), the result is being assigned
+    private static final int COMPLETED = 2;
+    private static final int TIMED_OUT = 3;
+    private static final int CANCELLED = 4;
+    private static final int FAILED = 5;
+
+    private final AtomicInteger state = new AtomicInteger(PENDING);
+    private final CountDownLatch doneLatch = new CountDownLatch(1);
+    private final List<CompletionListener> completionListeners = new ArrayList<CompletionListener>();
+    private volatile Object sender;
+    private volatile Event event;
+    private volatile Throwable failure;
+
+    /**
+     * Completes the future with an event. Returns false if the future was already done.
+     */
+    public boolean complete(Object sender, Event event) {
+        if (!state.compareAndSet(PENDING, COMPLETING))
+            return false;
+        this.sender = sender;
+        this.event = event;
+        state.set(COMPLETED);                          // published after the result, so a done future always has it
+        done();
+        return true;
+    }
+
+    /**
+     * Marks the future as timed out. Returns false if the future was already done.
+     */
+    public boolean timeOut() {
+        if (!state.compareAndSet(PENDING, TIMED_OUT))
+            return false;
+        done();
+        return true;
+    }
+
+    /**
+     * Fails the future, making get() throw an ExecutionException caused by the given failure. Returns false if the future
+     * was already done.
+     */
+    public boolean fail(Throwable failure) {
+        if (!state.compareAndSet(PENDING, COMPLETING))
+            return false;
+        this.failure = failure;
+        state.set(FAILED);
+        done();
+        return true;
+    }
+
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (!state.compareAndSet(PENDING, CANCELLED))
+            return false;
+        done();
+        return true;
+    }
+
+    /**
+     * Calls the completion listeners before releasing blocked callers, so that cleanup done by the listeners has happened
+     * by the time get() returns.
+     */
+    private void done() {
+        List<CompletionListener> listeners;
+        synchronized (completionListeners) {
+            listeners = new ArrayList<CompletionListener>(completionListeners);
+            completionListeners.clear();
+        }
+        try {
+            for (CompletionListener listener : listeners)
+                listener.futureDone(this);
+        } finally {
+            doneLatch.countDown();
+        }
+    }
+
+    /**
+     * Adds a listener that is called once the future is done. If the future is already done, the listener is called at once.
+     */
+    public void addCompletionListener(CompletionListener listener) {
+        synchronized (completionListeners) {
+            if (state.get() <= COMPLETING) {
+                completionListeners.add(listener);
+                return;
+            }
+        }
+        listener.futureDone(this);
+    }
+
+    public boolean isCancelled() {
+        return state.get() == CANCELLED;
+    }
+
+    public boolean isDone() {
+        return state.get() > COMPLETING;
+    }
+
+    /**
+     * Returns true if the future timed out before a matching event was triggered.
+     */
+    public boolean isTimedOut() {
+        return state.get() == TIMED_OUT;
+    }
+
+    /**
+     * Blocks until the future is done. Throws an ExecutionException caused by a TimeoutException if the future timed out,
+     * or by the failure if it failed.
+     */
+    public Event get() throws InterruptedException, ExecutionException {
+        doneLatch.await();
+        return result();
+    }
+
+    /**
+     * Blocks until the future is done, or until the given time has passed.
+     */
+    public Event get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!doneLatch.await(timeout, unit))
+            throw new TimeoutException();
+        return result();
+    }
+
+    /**
+     * Returns the event if the future has completed, otherwise null. Never blocks.
+     */
+    public Event getNow() {
+        return event;
+    }
+
+    /**
+     * Returns the object that triggered the event, or null if the future has not completed.
+     */
+    public Object getSender() {
+        return sender;
+    }
+
+    private Event result() throws ExecutionException {
+        switch (state.get()) {
+            case COMPLETED:
+                return event;
+            case TIMED_OUT:
+                throw new ExecutionException(new TimeoutException("No matching event was triggered before the timeout"));
+            case FAILED:
+                throw new ExecutionException(failure);
+            default:
+                throw new CancellationException();
+        }
+    }
+}
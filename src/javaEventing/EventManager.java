@@ -22,7 +22,13 @@ import javaEventing.internals.EventManagerExtension;
 
 
 public class EventManager {
-    private static EventManagerInstance eventManager = new EventManagerInstance();
+
+    /**
+     * Holds the EventManagerInstance used by this class, created when this class is first used for events rather than when it is loaded.
+     */
+    private static class InstanceHolder {
+        static final EventManagerInstance eventManager = new EventManagerInstance();
+    }
 
     /**
      * Returns the EventManagerInstance used by this class.
@@ -30,11 +36,11 @@ public class EventManager {
      * @return EventManagerInstance.
      */
     public static EventManagerInstance getEventManagerInstance() {
-        return eventManager;
+        return InstanceHolder.eventManager;
     }
 
     public static void registerEventListener(GenericEventListener receiver, Class<? extends Event> eventClass) {
-        eventManager.registerEventListener(receiver, eventClass);
+        getEventManagerInstance().registerEventListener(receiver, eventClass);
     }
 
       /**
@@ -45,12 +51,12 @@ public class EventManager {
      * @param eventClass The type of Event that is subscribed to. 
      */
     public static void registerEventListener(Object context, GenericEventListener receiver, Class<? extends Event> eventClass) {
-        eventManager.registerEventListener(context,receiver, eventClass);
+        getEventManagerInstance().registerEventListener(context,receiver, eventClass);
     }
 
 
     public static void unregisterAllEventSubscriptions() {
-        eventManager.unregisterAllEventSubscriptions();
+        getEventManagerInstance().unregisterAllEventSubscriptions();
     }
 
 
@@ -61,7 +67,7 @@ public class EventManager {
      * @param condition A condition that must be true for the EventListener to be called.
      */
     public static void registerEventListener(GenericEventListener receiver, Class<? extends Event> eventClass, Condition condition) {
-        eventManager.registerEventListener(receiver, eventClass, condition);
+        getEventManagerInstance().registerEventListener(receiver, eventClass, condition);
     }
 
     /**
@@ -73,7 +79,7 @@ public class EventManager {
      * @param condition A condition that must be true for the EventListener to be called.
      */
     public static void registerEventListener(Object context, GenericEventListener receiver, Class<? extends Event> eventClass, Condition condition) {
-        eventManager.registerEventListener(context, receiver, eventClass, condition);
+        getEventManagerInstance().registerEventListener(context, receiver, eventClass, condition);
     }
 
     /**
@@ -82,7 +88,7 @@ public class EventManager {
      * @param eventClass The type of Event that is subscribed to.
      */
     public static void unregisterEventListener(GenericEventListener receiver, Class<? extends Event> eventClass) {
-        eventManager.unregisterEventListener(receiver, eventClass);
+        getEventManagerInstance().unregisterEventListener(receiver, eventClass);
     }
 
     /**
@@ -90,7 +96,7 @@ public class EventManager {
      * @param context The object instance (or an object that .equals(object)==true) that was used to register the event listener.
      */
     public static void unregisterAllEventListenersForContext(Object context) {
-        eventManager.unregisterAllEventListenersForContext(context);
+        getEventManagerInstance().unregisterAllEventListenersForContext(context);
     }
 
      /**
@@ -99,7 +105,7 @@ public class EventManager {
      * @param timeout The number of milliseconds before the blocking call will resume regardless of whether the event was triggered or not. If zero, it will never time out.
      */
     public static boolean waitUntilTriggered(Class<? extends Event> event, long timeout) {
-        return eventManager.waitUntilTriggered(event, timeout);
+        return getEventManagerInstance().waitUntilTriggered(event, timeout);
 
     }
 
@@ -110,7 +116,17 @@ public class EventManager {
      * @param condition A condition that must be true for the call to unblock.
      */
     public static boolean waitUntilTriggered(Class<? extends Event> eventClass, long timeout, Condition condition) {
-        return eventManager.waitUntilTriggered(eventClass, timeout, condition);
+        return getEventManagerInstance().waitUntilTriggered(eventClass, timeout, condition);
+    }
+
+    /**
+     * Waits asynchronously for an event, without blocking the current thread.
+     * @param eventClass The type of Event that is waited for.
+     * @param condition A condition that must be true for the future to complete. May be null.
+     * @param timeout The number of milliseconds before the future times out. If zero, it will never time out.
+     */
+    public static EventFuture awaitEvent(Class<? extends Event> eventClass, Condition condition, long timeout) {
+        return getEventManagerInstance().awaitEvent(eventClass, condition, timeout);
     }
 
     /**
@@ -119,7 +135,7 @@ public class EventManager {
      * @param event An instance of the type of Event that is triggered.
      */
     public static void triggerEvent(final Object sender, final Event event) {
-        eventManager.triggerEvent(sender, event, null);
+        getEventManagerInstance().triggerEvent(sender, event, null);
     }
 
      /**
@@ -129,16 +145,16 @@ public class EventManager {
      * @param conditionalExpression An object of any type. Will be checked by any event listeners providing Condition-objects.
      */
     public static void triggerEvent(final Object sender, final Event event, final Object conditionalExpression) {
-        eventManager.triggerEvent(sender, event, conditionalExpression);
+        getEventManagerInstance().triggerEvent(sender, event, conditionalExpression);
     }
 
 
     public static EventManagerExtension getEventManagerExtension() {
-        return eventManager.getEventManagerExtension();
+        return getEventManagerInstance().getEventManagerExtension();
     }
 
     public static void setEventManagerExtension(EventManagerExtension eventManagerExtension) {
-        eventManager.setEventManagerExtension(eventManagerExtension);
+        getEventManagerInstance().setEventManagerExtension(eventManagerExtension);
     }
 
 }
@@ -16,15 +16,43 @@
 package javaEventing;
 
 import javaEventing.interfaces.Event;
+import javaEventing.interfaces.EventAggregator;
 import javaEventing.interfaces.GenericEventListener;
 import javaEventing.interfaces.Condition;
+import javaEventing.interfaces.CorrelatedEvent;
+import javaEventing.interfaces.DispatchProbe;
+import javaEventing.interfaces.DoubleEventListener;
+import javaEventing.interfaces.KeyExtractor;
+import javaEventing.interfaces.LongEventListener;
+import javaEventing.interfaces.UndeliveredEventHandler;
+import javaEventing.internals.DebouncingEventListener;
+import javaEventing.internals.DelegatingEventListener;
+import javaEventing.internals.DoubleEventListenerAdapter;
+import javaEventing.internals.EventDispatchThreadListener;
+import javaEventing.internals.EventHistory;
 import javaEventing.internals.EventManagerExtension;
+import javaEventing.internals.EventScheduler;
 import javaEventing.internals.EventSubscription;
+import javaEventing.internals.LastValueCache;
+import javaEventing.internals.LongEventListenerAdapter;
+import javaEventing.internals.ReplayingEventListener;
+import javaEventing.internals.SamplingEventListener;
+import javaEventing.internals.SubscriberFactories;
+import javaEventing.internals.SubscriberMethod;
+import javaEventing.internals.ThrottlingEventListener;
+import javaEventing.internals.WeakEventListener;
+import javaEventing.internals.WindowingEventListener;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
 import java.util.*;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class should be used for subscribing to, and triggering events
@@ -33,10 +61,111 @@ import java.util.concurrent.TimeUnit;
 public class EventManagerInstance {
 
     private EventManagerExtension eventManagerExtension;
-    private ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors() * 50);
+    private volatile EventTracer eventTracer;
+    private volatile ThresholdedProbe thresholdedProbe;
+    private volatile ListenerStatistics listenerStatistics;
+    private volatile RateLimiter rateLimiter;
+    private static final long IDLE_THREAD_TIMEOUT_SECONDS = 30;
+    private static final AtomicInteger schedulerCount = new AtomicInteger();
+    private volatile ScheduledExecutorService scheduler;    // created on first use unless given
+    private final int schedulerThreads;
+    private final boolean sharedScheduler;
+    private long idleThreadTimeoutNanos = TimeUnit.SECONDS.toNanos(IDLE_THREAD_TIMEOUT_SECONDS);
+    private boolean shutDown;
 
     protected Map<String, Map<Integer, EventSubscription>> eventSubscriptionLists = new HashMap<String, Map<Integer, EventSubscription>>();
-    private Map<Object, List<EventSubscription>> contextSubscriptionsMap = new HashMap<Object, List<EventSubscription>>();
+    private Map<Object, Set<EventSubscription>> contextSubscriptionsMap = new HashMap<Object, Set<EventSubscription>>();
+    private Map<String, LastValueCache> lastValueCaches = new HashMap<String, LastValueCache>();
+    private Map<String, EventHistory> eventHistories = new HashMap<String, EventHistory>();
+    private final ReferenceQueue<GenericEventListener> clearedListeners = new ReferenceQueue<GenericEventListener>();
+    private final EventDispatcher[] dispatchers;
+    private volatile int registryVersion;
+    private final Map<Class<?>, Subscribers> resolvedSubscribers = new HashMap<Class<?>, Subscribers>();
+    private final Map<Class<?>, ReplyRouter> replyRouters = new HashMap<Class<?>, ReplyRouter>();
+    private volatile boolean acceptingTriggers = true;
+    private final Set<QueuedTask> queuedTasks = Collections.newSetFromMap(new ConcurrentHashMap<QueuedTask, Boolean>());
+    private final Set<QueuedTask> runningTasks = Collections.newSetFromMap(new ConcurrentHashMap<QueuedTask, Boolean>());
+    private final AtomicLong completedTasks = new AtomicLong();
+    private final Set<ScheduledTrigger> scheduledTriggers = Collections.newSetFromMap(new ConcurrentHashMap<ScheduledTrigger, Boolean>());
+
+    /**
+     * Creates an event manager that dispatches events and runs its timers on a scheduler of its own. The scheduler is
+     * created when first needed, starts a thread only when an event arrives while all of its threads are busy, up to 50 per
+     * available processor, and stops them again after being idle for a while. Its threads are daemon threads, so they do not keep the JVM from exiting.
+     */
+    public EventManagerInstance() {
+        this(Runtime.getRuntime().availableProcessors() * 50, false);
+    }
+
+    private EventManagerInstance(int schedulerThreads, boolean sharedScheduler) {
+        this.scheduler = sharedScheduler ? SharedScheduler.scheduler : null;
+        this.schedulerThreads = schedulerThreads;
+        this.sharedScheduler = sharedScheduler;
+        this.dispatchers = null;
+    }
+
+    /**
+     * Creates an event manager that dispatches events and runs its timers on a scheduler shared by all event managers
+     * created this way, so creating many short-lived event managers starts no threads of their own. The shared scheduler
+     * is never shut down: shutdown() only cancels the queued and scheduled events of this event manager. Timers of
+     * debounced, throttled, sampled, windowed and pattern listeners keep running until the listeners are unregistered.
+     */
+    public static EventManagerInstance createWithSharedScheduler() {
+        return new EventManagerInstance(0, true);
+    }
+
+    /**
+     * Creates an event manager whose scheduler of the given size is created when first needed.
+     */
+    static EventManagerInstance createWithSchedulerThreads(int schedulerThreads) {
+        return new EventManagerInstance(schedulerThreads, false);
+    }
+
+    /**
+     * Creates an event manager that dispatches events and runs its timers on the given scheduler. A scheduler with a single
+     * thread delivers the events to each listener in the order they were triggered.
+     * @param scheduler The scheduler used for dispatching events. It is shut down by shutdown().
+     */
+    public EventManagerInstance(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+        this.schedulerThreads = 0;
+        this.sharedScheduler = false;
+        this.dispatchers = null;
+    }
+
+    /**
+     * Creates a low latency event manager with a fixed number of dedicated dispatcher threads. Event classes are spread over
+     * the dispatchers, and all events of a class are delivered by the same dispatcher, in the order they were triggered.
+     * Each dispatcher caches the subscribers of its event classes, so delivering an event takes no lock unless the registry
+     * has changed, or the event class has a last value cache or history.
+     * Listeners are called directly on the dispatcher threads and must not block. Future and periodic events, and the timers of
+     * debounced, throttled, sampled and windowed listeners, run on a separate single threaded scheduler, created when first needed.
+     * The dispatcher threads are daemon threads, so they do not keep the JVM from exiting.
+     * @param dispatcherThreads The number of dispatcher threads, typically no more than the number of available processors.
+     */
+    public EventManagerInstance(int dispatcherThreads) {
+        this(dispatcherThreads, 8192);
+    }
+
+    /**
+     * Creates a low latency event manager with a fixed number of dedicated dispatcher threads, each queueing events in a ring
+     * of preallocated envelopes. Triggering an event waits while the ring of its dispatcher is full.
+     * @param dispatcherThreads The number of dispatcher threads, typically no more than the number of available processors.
+     * @param queueCapacity The number of events each dispatcher can queue. Must be a power of two.
+     */
+    public EventManagerInstance(int dispatcherThreads, int queueCapacity) {
+        if (dispatcherThreads <= 0)
+            throw new IllegalArgumentException("dispatcherThreads must be positive");
+
+        this.schedulerThreads = 1;
+        this.sharedScheduler = false;
+        this.dispatchers = new EventDispatcher[dispatcherThreads];
+        for (int i = 0; i < dispatcherThreads; i++) {
+            dispatchers[i] = new EventDispatcher(this, "EventDispatcher-" + i, queueCapacity);
+            dispatchers[i].setDaemon(true);
+            dispatchers[i].start();
+        }
+    }
 
      /**
      * Registers an event listener, and binds it to a specific type of event. Define your own types of events by creating classes imlement the Event interface.
@@ -62,7 +191,14 @@ public class EventManagerInstance {
 
 
     public synchronized void unregisterAllEventSubscriptions() {
+        for (Map<Integer, EventSubscription> subscriptionList : eventSubscriptionLists.values()) {
+            for (EventSubscription eventSubscription : subscriptionList.values())
+                cancelSubscription(eventSubscription);
+        }
         eventSubscriptionLists = new HashMap<String, Map<Integer, EventSubscription>>();
+        contextSubscriptionsMap = new HashMap<Object, Set<EventSubscription>>();
+        replyRouters.clear();
+        registryVersion++;
     }
 
 
@@ -94,28 +230,533 @@ public class EventManagerInstance {
             eventSubscriptionLists.put(eventClass.getName(), subcriptionList);
         }
 
-        EventSubscription subscription = new EventSubscription(receiver, eventClass, condition);
+        EventSubscription subscription = new EventSubscription(receiver, eventClass, condition, context);
 
-        if (!subcriptionList.containsKey(subscription.hashCode()))
+        if (!subcriptionList.containsKey(subscription.hashCode())) {
             subcriptionList.put(subscription.hashCode(), subscription);
-
-        manageContext(context, subscription);
+            manageContext(context, subscription);
+            registryVersion++;
+        } else {
+            cancelSubscription(subscription);          // already registered, release the timers of the unused wrapper
+        }
 
         if (eventManagerExtension!=null)
             eventManagerExtension.afterRegisterEventListener(receiver, eventClass, condition, eventSubscriptionLists);
     }
 
+    /**
+     * Registers a listener for a type of LongEvent. The listener receives the long value of each event without boxing.
+     * @param receiver The callback object that will be called once the event is triggered.
+     * @param eventClass The type of LongEvent that is subscribed to.
+     */
+    public synchronized void registerLongEventListener(LongEventListener receiver, Class<? extends LongEvent> eventClass) {
+        registerLongEventListener(null, receiver, eventClass, null);
+    }
+
+    /**
+     * Registers a listener for a type of LongEvent. The listener receives the long value of each event without boxing.
+     * @param context Any type of object, which will serve as a context for your event listeners. May be null.
+     * @param receiver The callback object that will be called once the event is triggered.
+     * @param eventClass The type of LongEvent that is subscribed to.
+     * @param condition A condition that must be true for the listener to be called. May be null.
+     */
+    public synchronized void registerLongEventListener(Object context, LongEventListener receiver, Class<? extends LongEvent> eventClass, Condition condition) {
+        registerEventListener(context, new LongEventListenerAdapter(receiver), eventClass, condition);
+    }
+
+    /**
+     * Unregisters a listener registered with registerLongEventListener(...).
+     */
+    public synchronized void unregisterLongEventListener(LongEventListener receiver, Class<? extends LongEvent> eventClass) {
+        unregisterEventListener(new LongEventListenerAdapter(receiver), eventClass);
+    }
+
+    /**
+     * Registers a listener for a type of DoubleEvent. The listener receives the double value of each event without boxing.
+     * @param receiver The callback object that will be called once the event is triggered.
+     * @param eventClass The type of DoubleEvent that is subscribed to.
+     */
+    public synchronized void registerDoubleEventListener(DoubleEventListener receiver, Class<? extends DoubleEvent> eventClass) {
+        registerDoubleEventListener(null, receiver, eventClass, null);
+    }
+
+    /**
+     * Registers a listener for a type of DoubleEvent. The listener receives the double value of each event without boxing.
+     * @param context Any type of object, which will serve as a context for your event listeners. May be null.
+     * @param receiver The callback object that will be called once the event is triggered.
+     * @param eventClass The type of DoubleEvent that is subscribed to.
+     * @param condition A condition that must be true for the listener to be called. May be null.
+     */
+    public synchronized void registerDoubleEventListener(Object context, DoubleEventListener receiver, Class<? extends DoubleEvent> eventClass, Condition condition) {
+        registerEventListener(context, new DoubleEventListenerAdapter(receiver), eventClass, condition);
+    }
+
+    /**
+     * Unregisters a listener registered with registerDoubleEventListener(...).
+     */
+    public synchronized void unregisterDoubleEventListener(DoubleEventListener receiver, Class<? extends DoubleEvent> eventClass) {
+        unregisterEventListener(new DoubleEventListenerAdapter(receiver), eventClass);
+    }
+
+    /**
+     * Registers every method of an object annotated with Subscribe, including those declared by its superclasses, as an
+     * event listener for the event type it takes.
+     * @param target The object whose annotated methods will be called once the events are triggered.
+     */
+    public synchronized void registerAnnotatedListeners(Object target) {
+        registerAnnotatedListeners(null, target);
+    }
+
+    /**
+     * Registers every method of an object annotated with Subscribe, including those declared by its superclasses, as an
+     * event listener for the event type it takes.
+     * @param context Any type of object, which will serve as a context for your event listeners. May be null.
+     * @param target The object whose annotated methods will be called once the events are triggered.
+     */
+    public synchronized void registerAnnotatedListeners(Object context, Object target) {
+        for (SubscriberMethod subscriberMethod : getSubscriberMethods(target))
+            registerEventListener(context, subscriberMethod, subscriberMethod.getEventClass(), null);
+    }
+
+    /**
+     * Unregisters the methods of an object registered with registerAnnotatedListeners(...). A subscription of another object
+     * whose methods happen to have the same hash code is left alone.
+     */
+    public synchronized void unregisterAnnotatedListeners(Object target) {
+        for (SubscriberMethod subscriberMethod : getSubscriberMethods(target)) {
+            Map<Integer, EventSubscription> subcriptionList = eventSubscriptionLists.get(subscriberMethod.getEventClass().getName());
+            if (subcriptionList == null)
+                continue;
+            int subscriptionKey = new EventSubscription(subscriberMethod, subscriberMethod.getEventClass(), null).hashCode();
+            EventSubscription registered = subcriptionList.get(subscriptionKey);
+            if (registered != null && subscriberMethod.equals(registered.getReceiver()))
+                removeSubscription(subcriptionList, subscriptionKey);
+        }
+    }
+
+    private List<SubscriberMethod> getSubscriberMethods(Object target) {
+        List<SubscriberMethod> subscriberMethods = new ArrayList<SubscriberMethod>();
+        for (Class<?> declaringClass = target.getClass(); declaringClass != Object.class; declaringClass = declaringClass.getSuperclass())
+            subscriberMethods.addAll(SubscriberFactories.get(declaringClass).createSubscribers(target));
+        return subscriberMethods;
+    }
+
+    /**
+     * Registers an event listener through a weak reference. The registration does not keep the receiver from being garbage
+     * collected; once it has been collected, its subscription is purged the next time an event is triggered or a weak
+     * listener registered. No timer or thread is involved, so weak listeners do not keep a forgotten event manager alive.
+     * The caller must keep a reference to the receiver for as long as it should receive events.
+     * @param receiver The callback object that will be called once the event is triggered.
+     * @param eventClass The type of Event that is subscribed to.
+     */
+    public synchronized void registerWeakEventListener(GenericEventListener receiver, Class<? extends Event> eventClass) {
+        registerWeakEventListener(null, receiver, eventClass, null);
+    }
+
+    /**
+     * Registers an event listener through a weak reference. The registration does not keep the receiver from being garbage
+     * collected; once it has been collected, its subscription is purged the next time an event is triggered or a weak
+     * listener registered. No timer or thread is involved, so weak listeners do not keep a forgotten event manager alive.
+     * The caller must keep a reference to the receiver for as long as it should receive events.
+     * @param context Any type of object, which will serve as a context for your event listeners. May be null.
+     * @param receiver The callback object that will be called once the event is triggered.
+     * @param eventClass The type of Event that is subscribed to.
+     * @param condition A condition that must be true for the EventListener to be called. May be null.
+     */
+    public synchronized void registerWeakEventListener(Object context, GenericEventListener receiver, Class<? extends Event> eventClass, Condition condition) {
+        purgeClearedListeners(16);
+        registerEventListener(context, new WeakEventListener(receiver, eventClass, clearedListeners), eventClass, condition);
+    }
+
+    /**
+     * Removes the subscriptions of weakly registered listeners that have been garbage collected, at most maxCount at a time,
+     * so that a large number of collected listeners is cleaned up in small steps.
+     */
+    private void purgeClearedListeners(int maxCount) {
+        Reference<? extends GenericEventListener> reference = clearedListeners.poll();
+        if (reference != null)                             // only locks when there is something to purge
+            purgeClearedListeners(reference, maxCount);
+    }
+
+    private synchronized void purgeClearedListeners(Reference<? extends GenericEventListener> first, int maxCount) {
+        for (int i = 0; i < maxCount; i++) {
+            Reference<? extends GenericEventListener> reference = i == 0 ? first : clearedListeners.poll();
+            if (reference == null)
+                return;
+
+            WeakEventListener weakEventListener = ((WeakEventListener.ListenerReference) reference).getWeakEventListener();
+            Map<Integer, EventSubscription> subcriptionList = eventSubscriptionLists.get(weakEventListener.getEventClass().getName());
+            if (subcriptionList == null)
+                continue;
+
+            int subscriptionKey = new EventSubscription(weakEventListener, weakEventListener.getEventClass(), null).hashCode();
+            EventSubscription eventSubscription = subcriptionList.get(subscriptionKey);
+            if (eventSubscription != null && eventSubscription.getReceiver() == weakEventListener)
+                removeSubscription(subcriptionList, subscriptionKey);
+        }
+    }
+
+    /**
+     * Returns the number of event listeners registered for a type of event.
+     * @param eventClass The type of Event.
+     */
+    public synchronized int getEventListenerCount(Class<? extends Event> eventClass) {
+        purgeClearedListeners(Integer.MAX_VALUE);
+        Map<Integer, EventSubscription> subcriptionList = eventSubscriptionLists.get(eventClass.getName());
+        return subcriptionList == null ? 0 : subcriptionList.size();
+    }
+
+    /**
+     * Registers an event listener that is only called once the event has stopped being triggered for a quiet period.
+     * Only the last event triggered before the quiet period is delivered.
+     * @param receiver The callback object that will be called once the event is triggered.
+     * @param eventClass The type of Event that is subscribed to.
+     * @param quietPeriod The time without new events that must pass before the receiver is called.
+     * @param timeUnit The unit of quietPeriod.
+     */
+    public synchronized void registerDebouncedEventListener(GenericEventListener receiver, Class<? extends Event> eventClass, long quietPeriod, TimeUnit timeUnit) {
+        registerDebouncedEventListener(null, receiver, eventClass, null, quietPeriod, timeUnit);
+    }
+
+    /**
+     * Registers an event listener that is only called once the event has stopped being triggered for a quiet period.
+     * Only the last event triggered before the quiet period is delivered.
+     * @param context Any type of object, which will serve as a context for your event listeners. May be null.
+     * @param receiver The callback object that will be called once the event is triggered.
+     * @param eventClass The type of Event that is subscribed to.
+     * @param condition A condition that must be true for the event to be considered. May be null.
+     * @param quietPeriod The time without new events that must pass before the receiver is called.
+     * @param timeUnit The unit of quietPeriod.
+     */
+    public synchronized void registerDebouncedEventListener(Object context, GenericEventListener receiver, Class<? extends Event> eventClass, Condition condition,
+            long quietPeriod, TimeUnit timeUnit) {
+        registerEventListener(context, new DebouncingEventListener(receiver, getScheduler(), quietPeriod, timeUnit), eventClass, condition);
+    }
+
+    /**
+     * Registers an event listener that is called at most once per period. The first event of a period is delivered at once,
+     * and the last event triggered during the rest of the period is delivered when the period ends.
+     * @param receiver The callback object that will be called once the event is triggered.
+     * @param eventClass The type of Event that is subscribed to.
+     * @param period The minimum time between two calls to the receiver.
+     * @param timeUnit The unit of period.
+     */
+    public synchronized void registerThrottledEventListener(GenericEventListener receiver, Class<? extends Event> eventClass, long period, TimeUnit timeUnit) {
+        registerThrottledEventListener(null, receiver, eventClass, null, period, timeUnit);
+    }
+
+    /**
+     * Registers an event listener that is called at most once per period. The first event of a period is delivered at once,
+     * and the last event triggered during the rest of the period is delivered when the period ends.
+     * @param context Any type of object, which will serve as a context for your event listeners. May be null.
+     * @param receiver The callback object that will be called once the event is triggered.
+     * @param eventClass The type of Event that is subscribed to.
+     * @param condition A condition that must be true for the event to be considered. May be null.
+     * @param period The minimum time between two calls to the receiver.
+     * @param timeUnit The unit of period.
+     */
+    public synchronized void registerThrottledEventListener(Object context, GenericEventListener receiver, Class<? extends Event> eventClass, Condition condition,
+            long period, TimeUnit timeUnit) {
+        registerEventListener(context, new ThrottlingEventListener(receiver, getScheduler(), period, timeUnit), eventClass, condition);
+    }
+
+    /**
+     * Registers an event listener that is called once per period with the most recent event triggered during that period.
+     * Periods without events are skipped.
+     * @param receiver The callback object that will be called once the event is triggered.
+     * @param eventClass The type of Event that is subscribed to.
+     * @param period The sampling period.
+     * @param timeUnit The unit of period.
+     */
+    public synchronized void registerSampledEventListener(GenericEventListener receiver, Class<? extends Event> eventClass, long period, TimeUnit timeUnit) {
+        registerSampledEventListener(null, receiver, eventClass, null, period, timeUnit);
+    }
+
+    /**
+     * Registers an event listener that is called once per period with the most recent event triggered during that period.
+     * Periods without events are skipped.
+     * @param context Any type of object, which will serve as a context for your event listeners. May be null.
+     * @param receiver The callback object that will be called once the event is triggered.
+     * @param eventClass The type of Event that is subscribed to.
+     * @param condition A condition that must be true for the event to be considered. May be null.
+     * @param period The sampling period.
+     * @param timeUnit The unit of period.
+     */
+    public synchronized void registerSampledEventListener(Object context, GenericEventListener receiver, Class<? extends Event> eventClass, Condition condition,
+            long period, TimeUnit timeUnit) {
+        registerEventListener(context, new SamplingEventListener(receiver, getScheduler(), period, timeUnit), eventClass, condition);
+    }
+
+    /**
+     * Registers an event listener that is called on the AWT event dispatch thread, so Swing and AWT components may be
+     * updated directly from it. Events triggered while a delivery is pending are delivered by the same runnable on the event queue.
+     * @param receiver The callback object that will be called once the event is triggered.
+     * @param eventClass The type of Event that is subscribed to.
+     */
+    public synchronized void registerEventDispatchThreadListener(GenericEventListener receiver, Class<? extends Event> eventClass) {
+        registerEventDispatchThreadListener(null, receiver, eventClass, null);
+    }
+
+    /**
+     * Registers an event listener that is called on the AWT event dispatch thread, so Swing and AWT components may be
+     * updated directly from it. Events triggered while a delivery is pending are delivered by the same runnable on the event queue.
+     * @param context Any type of object, which will serve as a context for your event listeners. May be null.
+     * @param receiver The callback object that will be called once the event is triggered.
+     * @param eventClass The type of Event that is subscribed to.
+     * @param condition A condition that must be true for the EventListener to be called. May be null.
+     */
+    public synchronized void registerEventDispatchThreadListener(Object context, GenericEventListener receiver, Class<? extends Event> eventClass,
+            Condition condition) {
+        registerEventListener(context, new EventDispatchThreadListener(receiver), eventClass, condition);
+    }
+
+    /**
+     * Registers an event listener that is called once per window instead of once per event. The receiver is called with a
+     * WindowEvent holding the events of the window.
+     * @param receiver The callback object that will be called once per window.
+     * @param eventClass The type of Event that is subscribed to.
+     * @param window How events are grouped, e.g. EventWindow.tumblingCount(100) or EventWindow.slidingTime(10, 1, TimeUnit.SECONDS).
+     */
+    public synchronized void registerWindowedEventListener(GenericEventListener receiver, Class<? extends Event> eventClass, EventWindow window) {
+        registerWindowedEventListener(null, receiver, eventClass, null, window, null);
+    }
+
+    /**
+     * Registers an event listener that is called once per window with a pre-aggregated result. The receiver is called with a
+     * WindowEvent whose payload is the result of folding the events of the window with the aggregator.
+     * @param receiver The callback object that will be called once per window.
+     * @param eventClass The type of Event that is subscribed to.
+     * @param window How events are grouped, e.g. EventWindow.tumblingCount(100) or EventWindow.slidingTime(10, 1, TimeUnit.SECONDS).
+     * @param aggregator Folds the events of a window into the payload of the WindowEvent.
+     */
+    public synchronized void registerWindowedEventListener(GenericEventListener receiver, Class<? extends Event> eventClass, EventWindow window,
+            EventAggregator aggregator) {
+        registerWindowedEventListener(null, receiver, eventClass, null, window, aggregator);
+    }
+
+    /**
+     * Registers an event listener that is called once per window instead of once per event.
+     * @param context Any type of object, which will serve as a context for your event listeners. May be null.
+     * @param receiver The callback object that will be called once per window.
+     * @param eventClass The type of Event that is subscribed to.
+     * @param condition A condition that must be true for an event to be added to the window. May be null.
+     * @param window How events are grouped, e.g. EventWindow.tumblingCount(100) or EventWindow.slidingTime(10, 1, TimeUnit.SECONDS).
+     * @param aggregator Folds the events of a window into the payload of the WindowEvent. If null, the payload is the list of events.
+     */
+    public synchronized void registerWindowedEventListener(Object context, GenericEventListener receiver, Class<? extends Event> eventClass, Condition condition,
+            EventWindow window, EventAggregator aggregator) {
+        registerEventListener(context, new WindowingEventListener(receiver, getScheduler(), window, aggregator), eventClass, condition);
+    }
+
+    /**
+     * Registers a listener for a pattern of events, such as a sequence, "A followed by B within 5 seconds", or n of m event types.
+     * The receiver is called with a PatternMatchEvent each time the pattern matches.
+     * @param receiver The callback object that will be called once the pattern matches.
+     * @param pattern The pattern to match, e.g. EventPattern.followedBy(OrderPlaced.class, OrderPaid.class, 5, TimeUnit.SECONDS).
+     * @param keyExtractor Tells which events belong together; only events with equal keys are matched with each other.
+     * If null, all events are matched with each other.
+     * @return The matcher, which must be unregistered when no longer needed.
+     */
+    public PatternMatcher registerPatternListener(GenericEventListener receiver, EventPattern pattern, KeyExtractor keyExtractor) {
+        PatternMatcher patternMatcher = new PatternMatcher(this, receiver, pattern, keyExtractor);
+        patternMatcher.register(getScheduler());
+        return patternMatcher;
+    }
+
+    /**
+     * Registers an event listener, and optionally delivers the cached last values of the event right away, so that a late
+     * subscriber does not have to wait for the next trigger to learn the current state. Requires enableLastValueCache(...)
+     * for the event class; without a cache, this is the same as registering a plain event listener.
+     * @param context Any type of object, which will serve as a context for your event listeners. May be null.
+     * @param receiver The callback object that will be called once the event is triggered.
+     * @param eventClass The type of Event that is subscribed to.
+     * @param condition A condition that must be true for the EventListener to be called. May be null.
+     * @param deliverLastValue If true, every cached last value matching the condition is delivered to the receiver at once,
+     * before the events triggered meanwhile, which are held back until the cached values have been delivered.
+     */
+    public synchronized void registerEventListener(Object context, GenericEventListener receiver, Class<? extends Event> eventClass, Condition condition,
+            boolean deliverLastValue) {
+        LastValueCache lastValueCache = lastValueCaches.get(eventClass.getName());
+        if (!deliverLastValue || lastValueCache == null) {
+            registerEventListener(context, receiver, eventClass, condition);
+            return;
+        }
+
+        List<EventHistory.Entry> lastValues = new ArrayList<EventHistory.Entry>();
+        for (LastValueCache.CachedEvent cachedEvent : lastValueCache.getAll()) {
+            if (condition == null || (cachedEvent.getConditionalExpression() != null
+                    && condition.matches(cachedEvent.getSender(), cachedEvent.getEvent(), cachedEvent.getConditionalExpression())))
+                lastValues.add(new EventHistory.Entry(cachedEvent.getSender(), cachedEvent.getEvent(), cachedEvent.getConditionalExpression()));
+        }
+        registerEventListener(context, receiver, eventClass, condition, lastValues);
+    }
+
+    /**
+     * Starts caching the last triggered event of a type, per key. Cached values can be read with getLastValue(...), and are
+     * delivered to listeners registered with deliverLastValue set.
+     * @param eventClass The type of Event to cache.
+     * @param keyExtractor Tells which key an event is cached under. If null, only the very last event is cached.
+     * @param maxEntries The maximum number of keys cached. When full, the least recently used key is evicted.
+     * @param timeToLive How long a cached value stays valid. If zero, values never expire.
+     * @param timeUnit The unit of timeToLive.
+     */
+    public synchronized void enableLastValueCache(Class<? extends Event> eventClass, KeyExtractor keyExtractor, int maxEntries, long timeToLive, TimeUnit timeUnit) {
+        lastValueCaches.put(eventClass.getName(), new LastValueCache(keyExtractor, maxEntries, timeUnit.toNanos(timeToLive)));
+        registryVersion++;
+    }
+
+    /**
+     * Stops caching the last triggered event of a type, and drops the cached values.
+     */
+    public synchronized void disableLastValueCache(Class<? extends Event> eventClass) {
+        lastValueCaches.remove(eventClass.getName());
+        registryVersion++;
+    }
+
+    /**
+     * Returns the last event of a type triggered with a key, or null if none is cached.
+     * @param eventClass The type of Event.
+     * @param key The key given by the cache's KeyExtractor, or null if the cache has none.
+     */
+    public synchronized Event getLastValue(Class<? extends Event> eventClass, Object key) {
+        LastValueCache lastValueCache = lastValueCaches.get(eventClass.getName());
+        if (lastValueCache == null)
+            return null;
+        LastValueCache.CachedEvent cachedEvent = lastValueCache.get(key);
+        return cachedEvent == null ? null : cachedEvent.getEvent();
+    }
+
+    /**
+     * Starts recording the most recent events of a type in a fixed size ring, so that listeners registered later can have
+     * them replayed. The memory used depends on the capacity only, not on the event rate.
+     * @param eventClass The type of Event to record.
+     * @param capacity The number of events kept.
+     */
+    public synchronized void enableEventHistory(Class<? extends Event> eventClass, int capacity) {
+        eventHistories.put(eventClass.getName(), new EventHistory(capacity));
+        registryVersion++;
+    }
+
+    /**
+     * Stops recording the events of a type, and drops the recorded ones.
+     */
+    public synchronized void disableEventHistory(Class<? extends Event> eventClass) {
+        eventHistories.remove(eventClass.getName());
+        registryVersion++;
+    }
+
+    /**
+     * Returns the recorded events of a type, oldest first. Requires enableEventHistory(...) for the event class.
+     * @param eventClass The type of Event.
+     * @param maxEvents The maximum number of events returned, counted from the most recent one.
+     * @param maxAge Only events triggered within this time are returned. If zero, age is not checked.
+     * @param timeUnit The unit of maxAge.
+     */
+    public synchronized List<Event> getEventHistory(Class<? extends Event> eventClass, int maxEvents, long maxAge, TimeUnit timeUnit) {
+        EventHistory eventHistory = eventHistories.get(eventClass.getName());
+        if (eventHistory == null)
+            return new ArrayList<Event>();
+        return eventHistory.getEvents(maxEvents, timeUnit.toNanos(maxAge));
+    }
+
+    /**
+     * Registers an event listener, and replays recorded events to it before it receives new ones. Requires enableEventHistory(...)
+     * for the event class; without a history, this is the same as registering a plain event listener.
+     * @param receiver The callback object that will be called once the event is triggered.
+     * @param eventClass The type of Event that is subscribed to.
+     * @param maxEvents The maximum number of recorded events replayed, counted from the most recent one.
+     * @param maxAge Only events triggered within this time are replayed. If zero, age is not checked.
+     * @param timeUnit The unit of maxAge.
+     */
+    public synchronized void registerReplayingEventListener(GenericEventListener receiver, Class<? extends Event> eventClass, int maxEvents, long maxAge,
+            TimeUnit timeUnit) {
+        registerReplayingEventListener(null, receiver, eventClass, null, maxEvents, maxAge, timeUnit);
+    }
+
+    /**
+     * Registers an event listener, and replays recorded events to it before it receives new ones. Requires enableEventHistory(...)
+     * for the event class; without a history, this is the same as registering a plain event listener.
+     * Replayed events are delivered one by one in the order they were triggered, followed by the events triggered meanwhile,
+     * which are held back until the replay is over.
+     * @param context Any type of object, which will serve as a context for your event listeners. May be null.
+     * @param receiver The callback object that will be called once the event is triggered.
+     * @param eventClass The type of Event that is subscribed to.
+     * @param condition A condition that must be true for the EventListener to be called. Also applied to replayed events. May be null.
+     * @param maxEvents The maximum number of recorded events replayed, counted from the most recent one.
+     * @param maxAge Only events triggered within this time are replayed. If zero, age is not checked.
+     * @param timeUnit The unit of maxAge.
+     */
+    public synchronized void registerReplayingEventListener(Object context, GenericEventListener receiver, Class<? extends Event> eventClass,
+            Condition condition, int maxEvents, long maxAge, TimeUnit timeUnit) {
+        EventHistory eventHistory = eventHistories.get(eventClass.getName());
+        if (eventHistory == null) {
+            registerEventListener(context, receiver, eventClass, condition);
+            return;
+        }
+
+        List<EventHistory.Entry> replayed = new ArrayList<EventHistory.Entry>();
+        for (EventHistory.Entry entry : eventHistory.getEntries(maxEvents, timeUnit.toNanos(maxAge))) {
+            if (condition == null || (entry.getConditionalExpression() != null
+                    && condition.matches(entry.getSender(), entry.getEvent(), entry.getConditionalExpression())))
+                replayed.add(entry);
+        }
+        registerEventListener(context, receiver, eventClass, condition, replayed);
+    }
+
+    /**
+     * Registers an event listener that gets the given events first, followed by the live events, which are held back until
+     * the given ones have been delivered.
+     */
+    private void registerEventListener(Object context, GenericEventListener receiver, Class<? extends Event> eventClass, Condition condition,
+            List<EventHistory.Entry> replayed) {
+        if (replayed.isEmpty()) {
+            registerEventListener(context, receiver, eventClass, condition);
+            return;
+        }
+
+        ReplayingEventListener replayingListener = new ReplayingEventListener(receiver);
+        registerEventListener(context, replayingListener, eventClass, condition);
+        submitTask(new ReplayTask(replayingListener, replayed));
+    }
+
     private void manageContext(Object context, EventSubscription subscription) {
         if (context!=null) {
-            List<EventSubscription> subscriptionsAssociatedWithContext = contextSubscriptionsMap.get(context);
+            Set<EventSubscription> subscriptionsAssociatedWithContext = contextSubscriptionsMap.get(context);
             if (subscriptionsAssociatedWithContext==null) {
-                subscriptionsAssociatedWithContext = new ArrayList<EventSubscription>();
+                subscriptionsAssociatedWithContext = new LinkedHashSet<EventSubscription>();
                 contextSubscriptionsMap.put(context, subscriptionsAssociatedWithContext);
             }
             subscriptionsAssociatedWithContext.add(subscription);
         }
     }
 
+    /**
+     * Removes a subscription from the context it was registered with, and drops the context once it has no subscriptions left.
+     */
+    private void forgetContext(EventSubscription subscription) {
+        if (subscription.getContext() == null)
+            return;
+
+        Set<EventSubscription> subscriptionsAssociatedWithContext = contextSubscriptionsMap.get(subscription.getContext());
+        if (subscriptionsAssociatedWithContext != null) {
+            subscriptionsAssociatedWithContext.remove(subscription);
+            if (subscriptionsAssociatedWithContext.isEmpty())
+                contextSubscriptionsMap.remove(subscription.getContext());
+        }
+    }
+
+    /**
+     * Removes a subscription from its event class and its context, and releases any timers held by its receiver.
+     */
+    private void removeSubscription(Map<Integer, EventSubscription> subcriptionList, int subscriptionKey) {
+        EventSubscription removed = subcriptionList.remove(subscriptionKey);
+        if (removed != null) {
+            forgetContext(removed);
+            cancelSubscription(removed);
+            registryVersion++;
+        }
+    }
+
     /**
      * Unregisters an event listener bound to an event
      * @param receiver The EventListener registered for a particular event.
@@ -126,8 +767,13 @@ public class EventManagerInstance {
         EventSubscription tempSubscription = new EventSubscription(receiver, eventClass, null);
 
         Map<Integer, EventSubscription> subcriptionList = eventSubscriptionLists.get(eventClass.getName());
-        if (subcriptionList.containsKey(tempSubscription.hashCode()))
-            subcriptionList.remove(tempSubscription.hashCode());
+        if (subcriptionList != null)
+            removeSubscription(subcriptionList, tempSubscription.hashCode());
+    }
+
+    private void cancelSubscription(EventSubscription eventSubscription) {
+        if (eventSubscription.getReceiver() instanceof DelegatingEventListener)
+            ((DelegatingEventListener) eventSubscription.getReceiver()).cancel();
     }
 
     /**
@@ -135,10 +781,25 @@ public class EventManagerInstance {
      * @param context The object instance (or an object that .equals(object)==true) that was used to register the event listener.
      */
     public synchronized void unregisterAllEventListenersForContext(Object context) {
-        List<EventSubscription> subscriptionsAssociatedWithContext = contextSubscriptionsMap.get(context);
+        Set<EventSubscription> subscriptionsAssociatedWithContext = contextSubscriptionsMap.remove(context);
+        if (subscriptionsAssociatedWithContext == null)
+            return;
+
         for (EventSubscription eventSubscription : subscriptionsAssociatedWithContext) {
-            unregisterEventListener(eventSubscription.getReceiver(), eventSubscription.getEventClass());
+            Map<Integer, EventSubscription> subcriptionList = eventSubscriptionLists.get(eventSubscription.getEventClass().getName());
+            if (subcriptionList != null && subcriptionList.get(eventSubscription.hashCode()) == eventSubscription) {
+                subcriptionList.remove(eventSubscription.hashCode());
+                cancelSubscription(eventSubscription);
+            }
         }
+        registryVersion++;
+    }
+
+    /**
+     * Returns the number of contexts that currently have event listeners registered.
+     */
+    public synchronized int getContextCount() {
+        return contextSubscriptionsMap.size();
     }
 
      /**
@@ -166,32 +827,238 @@ public class EventManagerInstance {
     }
 
     /**
-     * Create an instance of Runnable for the specified event.
+     * Waits asynchronously for an event. Unlike waitUntilTriggered, no thread is blocked while waiting: the returned future is
+     * completed by the thread delivering the event, and timed out by the event scheduler.
+     * The internal event listener is unregistered as soon as the future is done.
+     * @param eventClass The type of Event that is waited for.
+     * @param timeout The number of milliseconds before the future times out. If zero, it will never time out.
+     */
+    public EventFuture awaitEvent(Class<? extends Event> eventClass, long timeout) {
+        return awaitEvent(eventClass, null, timeout);
+    }
+
+    /**
+     * Waits asynchronously for an event. Unlike waitUntilTriggered, no thread is blocked while waiting: the returned future is
+     * completed by the thread delivering the event, and timed out by the event scheduler.
+     * The internal event listener is unregistered as soon as the future is done.
+     * @param eventClass The type of Event that is waited for.
+     * @param condition A condition that must be true for the future to complete. May be null.
+     * @param timeout The number of milliseconds before the future times out. If zero, it will never time out.
+     */
+    public EventFuture awaitEvent(final Class<? extends Event> eventClass, Condition condition, long timeout) {
+        final EventFuture future = new EventFuture();
+
+        final GenericEventListener eventListener = new GenericEventListener() {
+            public void eventTriggered(Object sender, Event event) {
+                future.complete(sender, event);
+            }
+        };
+        registerEventListener(null, eventListener, eventClass, condition);
+
+        final ScheduledFuture<?> timer;
+        if (timeout > 0) {
+            timer = getScheduler().schedule(new Runnable() {
+                public void run() {
+                    future.timeOut();
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+        } else {
+            timer = null;
+        }
+
+        future.addCompletionListener(new EventFuture.CompletionListener() {
+            public void futureDone(EventFuture future) {
+                unregisterEventListener(eventListener, eventClass);
+                if (timer != null)
+                    timer.cancel(false);
+            }
+        });
+
+        return future;
+    }
+
+    /**
+     * Triggers a request event and returns a future completed by the reply carrying the same correlation id. All requests
+     * waiting for a reply class share one registered listener, which finds the request by correlation id, so a request
+     * costs no registration, and no thread is blocked while waiting.
+     * @param sender The object instance triggering the request.
+     * @param request The request, whose correlation id must not be shared with another pending request for the same reply class.
+     * @param replyClass The type of event answering the request.
+     * @param timeout The number of milliseconds before the future times out. If zero, it will never time out.
+     * @return The future of the reply. It fails with a RejectedExecutionException if the request is dropped by a rate limit,
+     * cannot be triggered because the event manager is shutting down, or is still pending when the event manager is shut down.
+     */
+    public EventFuture request(Object sender, CorrelatedEvent request, Class<? extends CorrelatedEvent> replyClass, long timeout) {
+        final Object correlationId = request.getCorrelationId();
+        if (correlationId == null)
+            throw new IllegalArgumentException("A request needs a correlation id");
+
+        final ReplyRouter replyRouter = getReplyRouter(replyClass);
+        final EventFuture future = new EventFuture();
+        replyRouter.addPendingRequest(correlationId, future);
+        future.addCompletionListener(new EventFuture.CompletionListener() {
+            public void futureDone(EventFuture future) {
+                replyRouter.removePendingRequest(correlationId, future);
+            }
+        });
+
+        try {
+            if (timeout > 0) {
+                final ScheduledFuture<?> timer = getScheduler().schedule(new Runnable() {
+                    public void run() {
+                        future.timeOut();
+                    }
+                }, timeout, TimeUnit.MILLISECONDS);
+                future.addCompletionListener(new EventFuture.CompletionListener() {
+                    public void futureDone(EventFuture future) {
+                        timer.cancel(false);
+                    }
+                });
+            }
+
+            if (!tryTriggerEvent(sender, request, null))
+                future.fail(new RejectedExecutionException("The request was dropped by a rate limit"));
+        } catch (RejectedExecutionException e) {
+            future.fail(e);
+        }
+        return future;
+    }
+
+    /**
+     * Returns the number of requests waiting for a reply of the given type.
+     */
+    public synchronized int getPendingRequestCount(Class<? extends CorrelatedEvent> replyClass) {
+        ReplyRouter replyRouter = replyRouters.get(replyClass);
+        return replyRouter == null ? 0 : replyRouter.getPendingRequestCount();
+    }
+
+    private synchronized ReplyRouter getReplyRouter(Class<? extends CorrelatedEvent> replyClass) {
+        ReplyRouter replyRouter = replyRouters.get(replyClass);
+        if (replyRouter == null) {
+            replyRouter = new ReplyRouter();
+            replyRouters.put(replyClass, replyRouter);
+            registerEventListener(replyRouter, replyClass);
+        }
+        return replyRouter;
+    }
+
+    /**
+     * Creates a publisher for a type of event, letting subscribers pull events at the pace of their own demand instead of
+     * being called for every event. Each subscriber buffers up to 256 events before dropping the oldest.
+     * @param eventClass The type of Event that is published.
+     */
+    public EventPublisher createPublisher(Class<? extends Event> eventClass) {
+        return createPublisher(eventClass, null, 256);
+    }
+
+    /**
+     * Creates a publisher for a type of event, letting subscribers pull events at the pace of their own demand instead of
+     * being called for every event.
+     * @param eventClass The type of Event that is published.
+     * @param condition A condition that must be true for an event to be published. May be null.
+     * @param bufferSize The number of undelivered events kept per subscriber before the oldest ones are dropped.
+     */
+    public EventPublisher createPublisher(Class<? extends Event> eventClass, Condition condition, int bufferSize) {
+        return new EventPublisher(this, eventClass, condition, bufferSize);
+    }
+
+    /**
+     * Create a task dispatching the specified event on the event scheduler.
      *
      * @param sender object that triggered the event
      * @param event the event
      * @param conditionalExpression a conditional expression
-     * @return new Runnable, or null if there are no subscribing nodes.
+     * @param trace the trace to record the delivery in, or null if the event is not traced
+     * @return new task
      */
-    private synchronized Runnable createEventRunnable(final Object sender, final Event event, final Object conditionalExpression) {
-        final Map<Integer, EventSubscription> subscriptionList = eventSubscriptionLists.get(event.getClass().getName());
+    private QueuedTask createEventRunnable(final Object sender, final Event event, final Object conditionalExpression,
+            final EventTracer.EventTrace trace) {
+        return new QueuedTask(sender, event, conditionalExpression, null) {
+            void execute() {
+                ThresholdedProbe probe = thresholdedProbe;
+                long start = probe == null ? 0 : System.nanoTime();
+                if (trace != null)
+                    trace.dequeued();
 
-        return new Runnable(){
-            public void run() {
-                notifySubscribers(sender, event, subscriptionList, conditionalExpression);
+                Subscribers subscribers = resolveSubscribers(event.getClass());
+                if (subscribers.getLastValueCache() != null || subscribers.getEventHistory() != null)
+                    subscribers = recordEvent(sender, event, conditionalExpression);
+                notifySubscribers(sender, event, subscribers, conditionalExpression, trace);
 
                 if (eventManagerExtension!=null)
                     eventManagerExtension.afterTriggerEvent(sender, event, conditionalExpression);
+                if (probe != null)
+                    probe.batchDispatched(1, System.nanoTime() - start);
             }
         };
     }
 
+    /**
+     * Queues a task on the event scheduler, keeping track of it until it starts, so it can be handed back if the event
+     * manager is shut down before.
+     */
+    private void submitTask(QueuedTask task) {
+        queuedTasks.add(task);
+        try {
+            getScheduler().submit(task);
+        } catch (RejectedExecutionException e) {
+            queuedTasks.remove(task);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a number that changes whenever subscriptions, last value caches or histories are added or removed, so that
+     * dispatchers know when their cached subscribers are stale.
+     */
+    int getRegistryVersion() {
+        return registryVersion;
+    }
+
+    /**
+     * Resolves the subscribers of an event class, along with its last value cache and history, and compiles their conditions.
+     * The result is kept until the registry changes.
+     */
+    synchronized Subscribers resolveSubscribers(Class<? extends Event> eventClass) {
+        Subscribers resolved = resolvedSubscribers.get(eventClass);
+        if (resolved != null && resolved.getRegistryVersion() == registryVersion)
+            return resolved;
+
+        List<EventSubscription> subscriptions = new ArrayList<EventSubscription>();
+        Map<Integer, EventSubscription> subscriptionList = eventSubscriptionLists.get(eventClass.getName());
+        if (subscriptionList != null) {
+            for (EventSubscription eventSubscription : subscriptionList.values()) {
+                if (eventSubscription.getEventClass() == eventClass)
+                    subscriptions.add(eventSubscription);
+            }
+        }
+
+        resolved = new Subscribers(subscriptions.toArray(new EventSubscription[subscriptions.size()]), lastValueCaches.get(eventClass.getName()),
+                eventHistories.get(eventClass.getName()), registryVersion);
+        resolvedSubscribers.put(eventClass, resolved);
+        return resolved;
+    }
+
+    /**
+     * Records an event in the last value cache and history of its class, and returns the subscribers it is to be delivered to.
+     * Both happen under the same lock as registration, so a new listener either gets the event replayed or delivered, never
+     * both; the caller notifies the subscribers after the lock is released.
+     */
+    synchronized Subscribers recordEvent(Object sender, Event event, Object conditionalExpression) {
+        Subscribers subscribers = resolveSubscribers(event.getClass());
+        if (subscribers.getLastValueCache() != null)
+            subscribers.getLastValueCache().put(sender, event, conditionalExpression);
+        if (subscribers.getEventHistory() != null)
+            subscribers.getEventHistory().record(sender, event, conditionalExpression);
+        return subscribers;
+    }
+
     /**
      * Triggers an event.
      * @param sender The object instance triggering the event.
      * @param event An instance of the type of Event that is triggered.
      */
-    public synchronized void triggerEvent(final Object sender, final Event event) {
+    public void triggerEvent(final Object sender, final Event event) {
         triggerEvent(sender, event, null);
     }
 
@@ -200,10 +1067,49 @@ public class EventManagerInstance {
      * @param sender The object instance triggering the event.
      * @param event An instance of the type of Event that is triggered.
      * @param conditionalExpression An object of any type. Will be checked by any event listeners providing Condition-objects.
+     * Events over the rate limit of their sender or event class are dropped.
+     * @throws RejectedExecutionException if the event manager is shutting down gracefully.
      */
-    public synchronized void triggerEvent(final Object sender, final Event event, final Object conditionalExpression) {
-        Runnable r = createEventRunnable(sender, event, conditionalExpression);
-        scheduler.submit(r);
+    public void triggerEvent(final Object sender, final Event event, final Object conditionalExpression) {
+        tryTriggerEvent(sender, event, conditionalExpression);
+    }
+
+    /**
+     * Triggers an event, unless it is over the rate limit of its sender or event class.
+     * @param sender The object instance triggering the event.
+     * @param event An instance of the type of Event that is triggered.
+     * @param conditionalExpression An object of any type. Will be checked by any event listeners providing Condition-objects.
+     * @return false if the event was dropped by a rate limit.
+     * @throws RejectedExecutionException if the event manager is shutting down gracefully.
+     */
+    public boolean tryTriggerEvent(Object sender, Event event, Object conditionalExpression) {
+        checkAcceptingTriggers();
+        return triggerWithinRateLimits(sender, event, conditionalExpression);
+    }
+
+    private boolean triggerWithinRateLimits(Object sender, Event event, Object conditionalExpression) {
+        purgeClearedListeners(16);
+        RateLimiter limiter = rateLimiter;
+        if (limiter != null && !limiter.tryAcquire(sender, event.getClass()))
+            return false;
+        trigger(sender, event, conditionalExpression);
+        return true;
+    }
+
+    private void trigger(Object sender, Event event, Object conditionalExpression) {
+        ThresholdedProbe probe = thresholdedProbe;
+        long start = probe == null ? 0 : System.nanoTime();
+        EventTracer tracer = eventTracer;
+        EventTracer.EventTrace trace = tracer == null ? null : tracer.sample(event);
+
+        if (dispatchers != null) {
+            dispatchers[(event.getClass().hashCode() & Integer.MAX_VALUE) % dispatchers.length].dispatch(sender, event, conditionalExpression, trace);
+        } else {
+            submitTask(createEventRunnable(sender, event, conditionalExpression, trace));
+        }
+
+        if (probe != null)
+            probe.eventTriggered(event.getClass(), System.nanoTime() - start);
     }
 
     /**
@@ -228,8 +1134,10 @@ public class EventManagerInstance {
      * @param conditionalExpression An object of any type. Will be checked by any event listeners providing Condition-objects.
      */
     public synchronized void triggerFutureEvent(final Object sender, final Event event, final Object conditionalExpression, long delay, TimeUnit timeUnit) {
-        Runnable r = createEventRunnable(sender, event, conditionalExpression);
-        scheduler.schedule(r, delay, timeUnit);
+        checkAcceptingTriggers();
+        ScheduledTrigger trigger = new ScheduledTrigger(sender, event, conditionalExpression, false);
+        scheduledTriggers.add(trigger);
+        trigger.future = getScheduler().schedule(trigger, delay, timeUnit);
     }
 
     /**
@@ -255,8 +1163,15 @@ public class EventManagerInstance {
      */
     public synchronized void triggerPeriodicEvent(final Object sender, final Event event, final Object conditionalExpression,
             long initialDelay, long delay, TimeUnit timeUnit) {
-            Runnable r = createEventRunnable(sender, event, conditionalExpression);
-            scheduler.scheduleWithFixedDelay(r, initialDelay, delay, timeUnit);
+            checkAcceptingTriggers();
+            ScheduledTrigger trigger = new ScheduledTrigger(sender, event, conditionalExpression, true);
+            scheduledTriggers.add(trigger);
+            trigger.future = getScheduler().scheduleWithFixedDelay(trigger, initialDelay, delay, timeUnit);
+    }
+
+    private void checkAcceptingTriggers() {
+        if (!acceptingTriggers)
+            throw new RejectedExecutionException("The event manager is shutting down");
     }
 
 
@@ -275,15 +1190,67 @@ public class EventManagerInstance {
         }
     }
 
+    /**
+     * Hands the event to every subscriber whose condition matches, evaluating the conditions through the compiled plan.
+     */
+    private void notifySubscribers(Object sender, Event event, Subscribers subscribers, Object conditionalExpression, EventTracer.EventTrace trace) {
+        EventSubscription[] subscriptions = subscribers.getSubscriptions();
+        if (subscriptions.length == 0)
+            return;
+
+        ConditionPlan.Evaluation evaluation = new ConditionPlan.Evaluation();
+        evaluation.begin(subscribers.getConditionPlan());
+        for (int i = 0; i < subscriptions.length; i++) {
+            if (subscribers.getConditionPlan().matches(i, sender, event, conditionalExpression, evaluation)) {
+                if (trace == null)
+                    invokeHandlerMethodAsynchronously(sender, event, subscriptions[i].getReceiver());
+                else
+                    invokeHandlerMethodAsynchronously(sender, event, subscriptions[i].getReceiver(), trace.matched(subscriptions[i].getReceiver()));
+            }
+        }
+    }
+
     private void invokeHandlerMethodAsynchronously(final Object sender, final Event event, final GenericEventListener receiver) {
+        invokeHandlerMethodAsynchronously(sender, event, receiver, null);
+    }
+
+    private void invokeHandlerMethodAsynchronously(final Object sender, final Event event, final GenericEventListener receiver,
+            final EventTracer.Delivery delivery) {
         //System.out.println("invoke");
-        scheduler.submit(new Runnable(){
-            public void run() {
-                receiver.eventTriggered(sender, event);
+        submitTask(new QueuedTask(sender, event, null, receiver) {
+            void execute() {
+                invokeListener(receiver, sender, event, delivery);
             }
         });
     }
 
+    /**
+     * Calls a listener, measuring it for the dispatch probe, the listener statistics and the event tracer when installed.
+     * @param delivery The traced delivery, or null if the event is not traced.
+     */
+    void invokeListener(GenericEventListener receiver, Object sender, Event event, EventTracer.Delivery delivery) {
+        ThresholdedProbe probe = thresholdedProbe;
+        ListenerStatistics statistics = listenerStatistics;
+        if (probe == null && statistics == null && delivery == null) {
+            receiver.eventTriggered(sender, event);
+            return;
+        }
+
+        if (delivery != null)
+            delivery.started();
+        long start = statistics == null ? System.nanoTime() : statistics.started(receiver, event);
+        try {
+            receiver.eventTriggered(sender, event);
+        } finally {
+            if (statistics != null)
+                statistics.ended(receiver, start);
+            if (probe != null)
+                probe.listenerInvoked(DelegatingEventListener.getListenerClass(receiver), event.getClass(), System.nanoTime() - start);
+            if (delivery != null)
+                delivery.ended();
+        }
+    }
+
     public EventManagerExtension getEventManagerExtension() {
         return eventManagerExtension;
     }
@@ -291,12 +1258,499 @@ public class EventManagerInstance {
     public void setEventManagerExtension(EventManagerExtension eventManagerExtension) {
         this.eventManagerExtension = eventManagerExtension;
     }
+
+    public EventTracer getEventTracer() {
+        return eventTracer;
+    }
+
+    /**
+     * Installs a tracer recording the life cycle of a sample of the triggered events, or removes it if null.
+     * Without a tracer, tracing costs nothing but a field read per triggered event.
+     */
+    public void setEventTracer(EventTracer eventTracer) {
+        this.eventTracer = eventTracer;
+    }
+
+    /**
+     * Installs a probe that is told about triggers, dispatch batches and listener invocations taking at least the threshold,
+     * and about triggering threads stalled for at least the threshold by a full dispatcher queue. Pass null to remove it.
+     * Without a probe, no time is measured.
+     * @param dispatchProbe The probe, or null.
+     * @param threshold The minimum duration reported. If zero, everything is reported.
+     * @param timeUnit The unit of threshold.
+     */
+    public void setDispatchProbe(DispatchProbe dispatchProbe, long threshold, TimeUnit timeUnit) {
+        thresholdedProbe = dispatchProbe == null ? null : new ThresholdedProbe(dispatchProbe, timeUnit.toNanos(threshold));
+    }
+
+    ThresholdedProbe getThresholdedProbe() {
+        return thresholdedProbe;
+    }
+
+    /**
+     * Sets how long the threads of the scheduler created by this event manager stay alive while idle. The default is 30
+     * seconds. Has no effect on a scheduler given to the constructor, nor on the shared scheduler.
+     * @param timeout The idle time after which a thread stops. Must be positive.
+     * @param timeUnit The unit of timeout.
+     */
+    public synchronized void setIdleThreadTimeout(long timeout, TimeUnit timeUnit) {
+        if (timeout <= 0)
+            throw new IllegalArgumentException("timeout must be positive");
+        if (schedulerThreads == 0)
+            return;                                        // not a scheduler of its own
+        idleThreadTimeoutNanos = timeUnit.toNanos(timeout);
+        if (scheduler != null)
+            ((EventScheduler) scheduler).setKeepAliveTime(idleThreadTimeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Starts or stops timing listeners and keeping track of running listeners, for the in-flight deliveries and slowest
+     * listeners of getStatus(...). Stopping drops the timings collected so far.
+     */
+    public synchronized void setListenerStatisticsEnabled(boolean enabled) {
+        if (!enabled)
+            listenerStatistics = null;
+        else if (listenerStatistics == null)
+            listenerStatistics = new ListenerStatistics();
+    }
+
+    /**
+     * Limits the rate at which each sender may trigger events. Every sender gets a token bucket of its own, holding up to burst
+     * events and refilled at the given rate; events triggered by a sender whose bucket is empty are dropped. Senders are
+     * told apart by identity, and a null sender counts as one sender. Future and periodic events are limited each time they
+     * are triggered, not when they are scheduled.
+     * @param eventsPerSecond The sustained rate allowed per sender, or zero to remove the limit.
+     * @param burst The number of events a sender may trigger at once after being quiet.
+     */
+    public synchronized void setSenderRateLimit(double eventsPerSecond, int burst) {
+        getRateLimiter().setSenderLimit(eventsPerSecond, burst);
+    }
+
+    /**
+     * Limits the rate at which events of a class may be triggered, by all senders together. Events triggered when the token
+     * bucket of the class is empty are dropped, without taking a token from the bucket of their sender. Future and periodic
+     * events are limited each time they are triggered, not when they are scheduled.
+     * @param eventClass The type of Event that is limited.
+     * @param eventsPerSecond The sustained rate allowed, or zero to remove the limit.
+     * @param burst The number of events that may be triggered at once after a quiet period.
+     */
+    public synchronized void setEventClassRateLimit(Class<? extends Event> eventClass, double eventsPerSecond, int burst) {
+        getRateLimiter().setEventClassLimit(eventClass, eventsPerSecond, burst);
+    }
+
+    private RateLimiter getRateLimiter() {
+        if (rateLimiter == null)
+            rateLimiter = new RateLimiter();
+        return rateLimiter;
+    }
+
+    /**
+     * Returns the number of events dropped by rate limits since the first limit was set.
+     */
+    public long getThrottledEventCount() {
+        RateLimiter limiter = rateLimiter;
+        return limiter == null ? 0 : limiter.getThrottledCount();
+    }
+
+    /**
+     * Returns a snapshot of the subscriptions, and, with listener statistics enabled, of the running and slowest listeners.
+     * Cheap enough to be polled every second.
+     * @param slowestListenerCount The maximum number of slowest listener classes returned.
+     */
+    public EventManagerStatus getStatus(int slowestListenerCount) {
+        List<EventManagerStatus.SubscriberCount> subscriberCounts = new ArrayList<EventManagerStatus.SubscriberCount>();
+        Map<Object, Integer> contextSubscriptionCounts = new HashMap<Object, Integer>();
+        synchronized (this) {
+            for (Map.Entry<String, Map<Integer, EventSubscription>> entry : eventSubscriptionLists.entrySet()) {
+                int conditional = 0;
+                for (EventSubscription eventSubscription : entry.getValue().values()) {
+                    if (eventSubscription.getCondition() != null)
+                        conditional++;
+                }
+                if (!entry.getValue().isEmpty())
+                    subscriberCounts.add(new EventManagerStatus.SubscriberCount(entry.getKey(), entry.getValue().size() - conditional, conditional));
+            }
+            for (Map.Entry<Object, Set<EventSubscription>> entry : contextSubscriptionsMap.entrySet())
+                contextSubscriptionCounts.put(entry.getKey(), entry.getValue().size());
+        }
+
+        RateLimiter limiter = rateLimiter;
+        Map<String, Long> throttledBySenderClass = limiter == null ? new HashMap<String, Long>() : limiter.getThrottledCountsBySenderClass();
+        Map<String, Long> throttledByEventClass = limiter == null ? new HashMap<String, Long>() : limiter.getThrottledCountsByEventClass();
+
+        ListenerStatistics statistics = listenerStatistics;
+        if (statistics == null) {
+            return new EventManagerStatus(subscriberCounts, contextSubscriptionCounts, new ArrayList<EventManagerStatus.InFlightDelivery>(),
+                    new ArrayList<EventManagerStatus.ListenerTiming>(), throttledBySenderClass, throttledByEventClass);
+        }
+        return new EventManagerStatus(subscriberCounts, contextSubscriptionCounts, statistics.getInFlightDeliveries(),
+                statistics.getSlowestListeners(slowestListenerCount), throttledBySenderClass, throttledByEventClass);
+    }
    
     /** 
      * Shutdown the event scheduler after the currently active event threads have exited. Qeued or scheduled events
      * will not be executed.
      */
     public void shutdown() {
-        scheduler.shutdownNow();
+        acceptingTriggers = false;
+        releaseScheduler();
+        if (dispatchers != null) {
+            for (EventDispatcher dispatcher : dispatchers)
+                dispatcher.shutdown();
+        }
+    }
+
+    /**
+     * Shuts down the event manager once the queued and running events have been delivered, or the timeout has expired.
+     * Triggering events is rejected from the start, future events that have not fired yet are not triggered, and periodic
+     * events are cancelled. Events still queued when the timeout expires are not delivered, and events still being
+     * delivered are interrupted. Events held back by debounced, throttled, sampled, windowed and event dispatch thread
+     * listeners are not delivered either, and are counted as undelivered.
+     * @param timeout The maximum time to wait for the queued events to be delivered.
+     * @return the number of events delivered, undelivered and cancelled.
+     */
+    public ShutdownReport shutdownGracefully(long timeout, TimeUnit timeUnit) {
+        return shutdownGracefully(timeout, timeUnit, null);
+    }
+
+    /**
+     * Shuts down the event manager once the queued and running events have been delivered, or the timeout has expired.
+     * Triggering events is rejected from the start, future events that have not fired yet are handed to the handler, and
+     * periodic events are cancelled. Events still queued when the timeout expires are handed to the handler, and events
+     * still being delivered are interrupted. Finally, the events held back by debounced, throttled, sampled, windowed and
+     * event dispatch thread listeners are handed to the handler, as windows in the case of windowed listeners.
+     * @param timeout The maximum time to wait for the queued events to be delivered.
+     * @param handler Receives the events that were not delivered, e.g. to persist them. May be null. Exceptions thrown by
+     * the handler are ignored.
+     * @return the number of events delivered, undelivered and cancelled.
+     */
+    public ShutdownReport shutdownGracefully(long timeout, TimeUnit timeUnit, UndeliveredEventHandler handler) {
+        long deadline = System.nanoTime() + timeUnit.toNanos(timeout);
+        acceptingTriggers = false;
+        long completedBefore = getCompletedTaskCount();
+
+        int cancelledFutureEvents = 0;
+        int cancelledPeriodicEvents = 0;
+        for (ScheduledTrigger trigger : new ArrayList<ScheduledTrigger>(scheduledTriggers)) {
+            if (!scheduledTriggers.remove(trigger))
+                continue;                                  // a future event firing right now
+            if (trigger.future != null)
+                trigger.future.cancel(false);
+            if (trigger.periodic) {
+                cancelledPeriodicEvents++;
+            } else {
+                cancelledFutureEvents++;
+                reportUndelivered(handler, trigger.sender, trigger.event, trigger.conditionalExpression, null);
+            }
+        }
+
+        while (getPendingTaskCount() > 0 && System.nanoTime() - deadline < 0) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        int undelivered = 0;
+        for (QueuedTask task : new ArrayList<QueuedTask>(queuedTasks)) {
+            if (queuedTasks.remove(task)) {               // otherwise it has just been started
+                undelivered += task.reportUndelivered(handler);
+            }
+        }
+        int interrupted = 0;
+        for (QueuedTask task : new ArrayList<QueuedTask>(runningTasks)) {
+            if (runningTasks.remove(task))                 // otherwise it has just completed
+                interrupted++;
+        }
+        releaseScheduler();
+
+        if (dispatchers != null) {
+            for (EventDispatcher dispatcher : dispatchers)
+                dispatcher.shutdown(handler);
+            for (EventDispatcher dispatcher : dispatchers) {
+                try {
+                    dispatcher.join(1000);
+                    if (dispatcher.isAlive()) {                // stuck in a listener
+                        dispatcher.interrupt();
+                        dispatcher.join(1000);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                undelivered += dispatcher.getUndeliveredCount();
+                interrupted += (int) (dispatcher.getPendingCount() - dispatcher.getUndeliveredCount());
+            }
+        }
+        undelivered += reportPendingEvents(handler);
+
+        return new ShutdownReport(getCompletedTaskCount() - completedBefore, undelivered, interrupted, cancelledFutureEvents,
+                cancelledPeriodicEvents);
+    }
+
+    /**
+     * Hands the events held back by debounced, throttled, sampled, windowed, replaying and event dispatch thread listeners
+     * to the handler, and cancels those listeners, so nothing they held is delivered after being reported.
+     * @return the number of events handed over.
+     */
+    private int reportPendingEvents(UndeliveredEventHandler handler) {
+        List<DelegatingEventListener> wrappers = new ArrayList<DelegatingEventListener>();
+        synchronized (this) {
+            for (Map<Integer, EventSubscription> subscriptions : eventSubscriptionLists.values()) {
+                for (EventSubscription subscription : subscriptions.values()) {
+                    if (subscription.getReceiver() instanceof DelegatingEventListener)
+                        wrappers.add((DelegatingEventListener) subscription.getReceiver());
+                }
+            }
+        }
+
+        int reported = 0;
+        for (DelegatingEventListener wrapper : wrappers) {
+            reported += wrapper.reportPendingEvents(handler);
+            wrapper.cancel();
+        }
+        return reported;
+    }
+
+    /**
+     * Returns the event scheduler, creating it on first use, so an event manager that never needs one starts no threads.
+     * @throws RejectedExecutionException if the event manager has been shut down.
+     */
+    private ScheduledExecutorService getScheduler() {
+        ScheduledExecutorService current = scheduler;
+        if (current != null)
+            return current;
+
+        synchronized (this) {
+            if (scheduler == null) {
+                if (shutDown)
+                    throw new RejectedExecutionException("The event manager has been shut down");
+                scheduler = createScheduler(schedulerThreads, "EventScheduler-" + schedulerCount.incrementAndGet(), idleThreadTimeoutNanos);
+            }
+            return scheduler;
+        }
+    }
+
+    /**
+     * Creates a scheduler starting daemon threads as deliveries overlap, up to the given number, and stopping them when idle.
+     * Timed work runs on at most one thread per available processor.
+     */
+    private static ScheduledExecutorService createScheduler(int threads, String name, long idleThreadTimeoutNanos) {
+        return new EventScheduler(threads, Math.min(threads, Runtime.getRuntime().availableProcessors()), name, idleThreadTimeoutNanos);
+    }
+
+    /**
+     * Stops the event scheduler, or, if it is shared, withdraws the queued and scheduled work of this event manager from it.
+     */
+    private void releaseScheduler() {
+        ScheduledExecutorService current;
+        List<ReplyRouter> routers;
+        synchronized (this) {
+            shutDown = true;
+            current = scheduler;
+            routers = new ArrayList<ReplyRouter>(replyRouters.values());
+        }
+        for (ReplyRouter replyRouter : routers)           // their timers are cancelled along with the scheduler
+            replyRouter.failPendingRequests(new RejectedExecutionException("The event manager has been shut down"));
+        if (current == null)
+            return;
+
+        if (!sharedScheduler) {
+            current.shutdownNow();
+            return;
+        }
+        for (ScheduledTrigger trigger : scheduledTriggers) {
+            if (trigger.future != null)
+                trigger.future.cancel(false);
+        }
+        scheduledTriggers.clear();
+        queuedTasks.clear();                               // tasks no longer queued return at once when run
+    }
+
+    private long getPendingTaskCount() {
+        long pending = queuedTasks.size() + runningTasks.size();
+        if (dispatchers != null) {
+            for (EventDispatcher dispatcher : dispatchers)
+                pending += dispatcher.getPendingCount();
+        }
+        return pending;
+    }
+
+    private long getCompletedTaskCount() {
+        long completed = completedTasks.get();
+        if (dispatchers != null) {
+            for (EventDispatcher dispatcher : dispatchers)
+                completed += dispatcher.getCompletedCount();
+        }
+        return completed;
+    }
+
+    private static void reportUndelivered(UndeliveredEventHandler handler, Object sender, Event event, Object conditionalExpression,
+            GenericEventListener receiver) {
+        if (handler == null)
+            return;
+        try {
+            handler.eventUndelivered(sender, event, conditionalExpression, receiver);
+        } catch (RuntimeException e) {
+            // a failing handler must not hide the remaining events
+        }
+    }
+
+    /**
+     * An event, or a delivery of an event to one listener, queued on the event scheduler. Whoever removes it from the queued
+     * tasks owns it: the scheduler thread running it, or shutdownGracefully(...) handing it back, so an event is never both
+     * delivered and reported as undelivered. Likewise, it is counted as completed or as interrupted by whoever removes it
+     * from the running tasks.
+     */
+    private abstract class QueuedTask implements Runnable {
+        final Object sender;
+        final Event event;
+        final Object conditionalExpression;
+        final GenericEventListener receiver;             // null until the event has been matched against its listeners
+
+        QueuedTask(Object sender, Event event, Object conditionalExpression, GenericEventListener receiver) {
+            this.sender = sender;
+            this.event = event;
+            this.conditionalExpression = conditionalExpression;
+            this.receiver = receiver;
+        }
+
+        public final void run() {
+            runningTasks.add(this);                       // added before leaving the queue, so a draining shutdown always sees it in one of them
+            if (!queuedTasks.remove(this)) {
+                runningTasks.remove(this);
+                return;
+            }
+            try {
+                execute();
+            } finally {
+                if (runningTasks.remove(this))
+                    completedTasks.incrementAndGet();
+            }
+        }
+
+        abstract void execute();
+
+        /**
+         * Hands the task back to the handler of shutdownGracefully(...), returning the number of events reported.
+         */
+        int reportUndelivered(UndeliveredEventHandler handler) {
+            EventManagerInstance.reportUndelivered(handler, sender, event, conditionalExpression, receiver);
+            return 1;
+        }
+    }
+
+    /**
+     * Replays recorded events to a replaying listener, followed by the live events it held back meanwhile. A failing receiver
+     * does not end the replay, as the live events held back behind it would never be delivered.
+     */
+    private class ReplayTask extends QueuedTask {
+        final ReplayingEventListener replayingListener;
+        final List<EventHistory.Entry> replayed;
+
+        ReplayTask(ReplayingEventListener replayingListener, List<EventHistory.Entry> replayed) {
+            super(null, null, null, replayingListener.getReceiver());
+            this.replayingListener = replayingListener;
+            this.replayed = replayed;
+        }
+
+        void execute() {
+            for (EventHistory.Entry entry : replayed)
+                replay(entry.getSender(), entry.getEvent());
+            for (List<EventHistory.Entry> heldBack = replayingListener.takeHeldBackEvents(); !heldBack.isEmpty();
+                    heldBack = replayingListener.takeHeldBackEvents()) {
+                for (EventHistory.Entry entry : heldBack)
+                    replay(entry.getSender(), entry.getEvent());
+            }
+        }
+
+        private void replay(Object sender, Event event) {
+            try {
+                invokeListener(receiver, sender, event, null);
+            } catch (RuntimeException e) {
+                // the remaining events are still delivered
+            }
+        }
+
+        int reportUndelivered(UndeliveredEventHandler handler) {
+            for (EventHistory.Entry entry : replayed)
+                EventManagerInstance.reportUndelivered(handler, entry.getSender(), entry.getEvent(), entry.getConditionalExpression(), receiver);
+            List<EventHistory.Entry> heldBack = replayingListener.takeHeldBackEvents();
+            for (EventHistory.Entry entry : heldBack)
+                EventManagerInstance.reportUndelivered(handler, entry.getSender(), entry.getEvent(), null, receiver);
+            return replayed.size() + heldBack.size();
+        }
+    }
+
+    /**
+     * Triggers a future or periodic event when run, unless it has been cancelled by shutdownGracefully(...).
+     */
+    private class ScheduledTrigger implements Runnable {
+        final Object sender;
+        final Event event;
+        final Object conditionalExpression;
+        final boolean periodic;
+        volatile ScheduledFuture<?> future;
+
+        ScheduledTrigger(Object sender, Event event, Object conditionalExpression, boolean periodic) {
+            this.sender = sender;
+            this.event = event;
+            this.conditionalExpression = conditionalExpression;
+            this.periodic = periodic;
+        }
+
+        public void run() {
+            if (periodic ? !scheduledTriggers.contains(this) : !scheduledTriggers.remove(this))
+                return;
+            triggerWithinRateLimits(sender, event, conditionalExpression);
+        }
+    }
+
+    /**
+     * Holds the scheduler shared by the event managers created with createWithSharedScheduler(), created when first needed.
+     */
+    private static class SharedScheduler {
+        static final ScheduledExecutorService scheduler = createScheduler(Runtime.getRuntime().availableProcessors() * 50, "EventScheduler-shared",
+                TimeUnit.SECONDS.toNanos(IDLE_THREAD_TIMEOUT_SECONDS));
+    }
+
+    /**
+     * The subscribers of an event class as resolved at one version of the registry.
+     */
+    static class Subscribers {
+        private final EventSubscription[] subscriptions;
+        private final LastValueCache lastValueCache;
+        private final EventHistory eventHistory;
+        private final int registryVersion;
+        private final ConditionPlan conditionPlan;
+
+        Subscribers(EventSubscription[] subscriptions, LastValueCache lastValueCache, EventHistory eventHistory, int registryVersion) {
+            this.subscriptions = subscriptions;
+            this.conditionPlan = new ConditionPlan(subscriptions);
+            this.lastValueCache = lastValueCache;
+            this.eventHistory = eventHistory;
+            this.registryVersion = registryVersion;
+        }
+
+        EventSubscription[] getSubscriptions() {
+            return subscriptions;
+        }
+
+        LastValueCache getLastValueCache() {
+            return lastValueCache;
+        }
+
+        EventHistory getEventHistory() {
+            return eventHistory;
+        }
+
+        int getRegistryVersion() {
+            return registryVersion;
+        }
+
+        ConditionPlan getConditionPlan() {
+            return conditionPlan;
+        }
     }
 }
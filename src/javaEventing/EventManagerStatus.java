@@ -0,0 +1,191 @@
+/*
+   Copyright 2011 Espen Skjervold
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package javaEventing;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A read-only snapshot of the state of an EventManagerInstance, returned by EventManagerInstance.getStatus(...).
+ * Timings of listeners and deliveries in flight are only included while listener statistics are enabled.
+ * Counts of events dropped by rate limits are kept from the first limit set.
+ */
+public class EventManagerStatus {
+
+    private final List<SubscriberCount> subscriberCounts;
+    private final Map<Object, Integer> contextSubscriptionCounts;
+    private final List<InFlightDelivery> inFlightDeliveries;
+    private final List<ListenerTiming> slowestListeners;
+    private final Map<String, Long> throttledCountsBySenderClass;
+    private final Map<String, Long> throttledCountsByEventClass;
+
+    EventManagerStatus(List<SubscriberCount> subscriberCounts, Map<Object, Integer> contextSubscriptionCounts,
+            List<InFlightDelivery> inFlightDeliveries, List<ListenerTiming> slowestListeners,
+            Map<String, Long> throttledCountsBySenderClass, Map<String, Long> throttledCountsByEventClass) {
+        this.subscriberCounts = Collections.unmodifiableList(subscriberCounts);
+        this.contextSubscriptionCounts = Collections.unmodifiableMap(contextSubscriptionCounts);
+        this.inFlightDeliveries = Collections.unmodifiableList(inFlightDeliveries);
+        this.slowestListeners = Collections.unmodifiableList(slowestListeners);
+        this.throttledCountsBySenderClass = Collections.unmodifiableMap(throttledCountsBySenderClass);
+        this.throttledCountsByEventClass = Collections.unmodifiableMap(throttledCountsByEventClass);
+    }
+
+    /**
+     * Returns the number of subscribers per event class, split into conditional and unconditional subscribers.
+     */
+    public List<SubscriberCount> getSubscriberCounts() {
+        return subscriberCounts;
+    }
+
+    /**
+     * Returns the number of subscriptions per context.
+     */
+    public Map<Object, Integer> getContextSubscriptionCounts() {
+        return contextSubscriptionCounts;
+    }
+
+    /**
+     * Returns the listeners running at the time of the snapshot, the longest running first.
+     */
+    public List<InFlightDelivery> getInFlightDeliveries() {
+        return inFlightDeliveries;
+    }
+
+    /**
+     * Returns the listener classes with the highest average time per event, the slowest first.
+     */
+    public List<ListenerTiming> getSlowestListeners() {
+        return slowestListeners;
+    }
+
+    /**
+     * Returns the number of events dropped by rate limits per class of sender.
+     */
+    public Map<String, Long> getThrottledCountsBySenderClass() {
+        return throttledCountsBySenderClass;
+    }
+
+    /**
+     * Returns the number of events dropped by rate limits per event class.
+     */
+    public Map<String, Long> getThrottledCountsByEventClass() {
+        return throttledCountsByEventClass;
+    }
+
+    public static class SubscriberCount {
+        private final String eventClassName;
+        private final int unconditionalSubscribers;
+        private final int conditionalSubscribers;
+
+        SubscriberCount(String eventClassName, int unconditionalSubscribers, int conditionalSubscribers) {
+            this.eventClassName = eventClassName;
+            this.unconditionalSubscribers = unconditionalSubscribers;
+            this.conditionalSubscribers = conditionalSubscribers;
+        }
+
+        public String getEventClassName() {
+            return eventClassName;
+        }
+
+        public int getUnconditionalSubscribers() {
+            return unconditionalSubscribers;
+        }
+
+        public int getConditionalSubscribers() {
+            return conditionalSubscribers;
+        }
+
+        public String toString() {
+            return eventClassName + ": " + unconditionalSubscribers + " unconditional, " + conditionalSubscribers + " conditional";
+        }
+    }
+
+    public static class InFlightDelivery {
+        private final String listenerClassName;
+        private final String eventClassName;
+        private final String threadName;
+        private final long ageNanos;
+
+        InFlightDelivery(String listenerClassName, String eventClassName, String threadName, long ageNanos) {
+            this.listenerClassName = listenerClassName;
+            this.eventClassName = eventClassName;
+            this.threadName = threadName;
+            this.ageNanos = ageNanos;
+        }
+
+        public String getListenerClassName() {
+            return listenerClassName;
+        }
+
+        public String getEventClassName() {
+            return eventClassName;
+        }
+
+        public String getThreadName() {
+            return threadName;
+        }
+
+        /**
+         * Returns how long the listener had been running at the time of the snapshot.
+         */
+        public long getAgeNanos() {
+            return ageNanos;
+        }
+
+        public String toString() {
+            return listenerClassName + " handling " + eventClassName + " on " + threadName + " for " + ageNanos / 1000000 + " ms";
+        }
+    }
+
+    public static class ListenerTiming {
+        private final String listenerClassName;
+        private final long invocationCount;
+        private final long totalNanos;
+        private final long maxNanos;
+
+        ListenerTiming(String listenerClassName, long invocationCount, long totalNanos, long maxNanos) {
+            this.listenerClassName = listenerClassName;
+            this.invocationCount = invocationCount;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        public String getListenerClassName() {
+            return listenerClassName;
+        }
+
+        public long getInvocationCount() {
+            return invocationCount;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public long getAverageNanos() {
+            return invocationCount == 0 ? 0 : totalNanos / invocationCount;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        public String toString() {
+            return listenerClassName + ": " + invocationCount + " events, " + getAverageNanos() / 1000 + " us average, " + maxNanos / 1000 + " us max";
+        }
+    }
+}
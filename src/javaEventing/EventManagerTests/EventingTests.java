@@ -16,18 +16,73 @@
 package javaEventing.EventManagerTests;
 
 
+import javaEventing.CorrelatedEventObject;
+import javaEventing.DeclarativeCondition;
+import javaEventing.DoubleEvent;
+import javaEventing.EventFuture;
+import javaEventing.EventManagerStatus;
+import javaEventing.EventPattern;
+import javaEventing.EventPublisher;
+import javaEventing.EventTracer;
 import javaEventing.EventWatcher;
+import javaEventing.EventWindow;
+import javaEventing.LongEvent;
 import javaEventing.MultiEventWatcher;
+import javaEventing.PartitionedEventManager;
+import javaEventing.PatternMatchEvent;
+import javaEventing.PatternMatcher;
+import javaEventing.ShutdownReport;
+import javaEventing.Subscribe;
+import javaEventing.WindowEvent;
 import javaEventing.interfaces.Condition;
+import javaEventing.interfaces.DispatchProbe;
+import javaEventing.interfaces.DoubleEventListener;
 import javaEventing.interfaces.Event;
+import javaEventing.interfaces.EventAggregator;
+import javaEventing.interfaces.EventSubscriber;
+import javaEventing.interfaces.FlowSubscription;
 import javaEventing.interfaces.GenericEventListener;
+import javaEventing.interfaces.KeyExtractor;
+import javaEventing.interfaces.LongEventListener;
+import javaEventing.interfaces.UndeliveredEventHandler;
+import javaEventing.internals.SubscriberFactories;
+import javaEventing.internals.SubscriberMethod;
+import javaEventing.internals.TriggerLatch;
+import javaEventing.processing.SubscribeProcessor;
 import junit.framework.TestCase;
 
+import java.awt.EventQueue;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.net.URLClassLoader;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
 import javaEventing.EventManagerInstance;
 import javaEventing.EventObject;
 
@@ -402,6 +457,98 @@ public class EventingTests extends TestCase {
 
     }
 
+    public void testTriggerLatchHasNoMissedWakeups() throws Exception {
+        final TriggerLatch ping = new TriggerLatch();
+        final TriggerLatch pong = new TriggerLatch();
+        final int cycles = 1000000;
+        final AtomicInteger missedWakeups = new AtomicInteger();
+
+        //two threads hand a trigger back and forth, so every trigger races the other thread's wait.
+        //A lost wakeup would leave a thread waiting for the full timeout, and show up as a failed await.
+        Thread echo = new Thread(new Runnable() {
+            public void run() {
+                for (int i = 0; i < cycles; i++) {
+                    if (!ping.await(5000))
+                        missedWakeups.incrementAndGet();
+                    pong.trigger();
+                }
+            }
+        });
+        echo.start();
+
+        for (int i = 0; i < cycles; i++) {
+            ping.trigger();
+            if (!pong.await(5000))
+                missedWakeups.incrementAndGet();
+        }
+        echo.join();
+
+        assertTrue(missedWakeups.get() == 0);
+    }
+
+    public void testEventWatcherHasNoMissedWakeups() {
+        EventManagerInstance instance = new EventManagerInstance();
+
+        EventWatcher eventWatcher = new EventWatcher(instance, TestEvent.class);
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 10000; i++) {
+            instance.triggerEvent(this, new TestEvent());
+            assertTrue(eventWatcher.waitUntilTriggered(5000));
+        }
+
+        assertTrue(System.currentTimeMillis() - start < 5000);     //no wait ran into its timeout
+        assertFalse(eventWatcher.hasBeenTriggered());
+    }
+
+    public void testForgottenEventWatcherWakesItsWaiter() throws Exception {
+        final EventManagerInstance instance = new EventManagerInstance();
+        final AtomicBoolean triggered = new AtomicBoolean();
+        Thread waiter = new Thread() {
+            public void run() {
+                triggered.set(new EventWatcher(instance, TestEvent.class).waitUntilTriggered(3000));    //no reference kept to the watcher
+            }
+        };
+        waiter.start();
+
+        collectGarbageWhile(waiter);
+        instance.triggerEvent(this, new TestEvent());
+        waiter.join();
+        assertTrue(triggered.get());
+        instance.shutdown();
+    }
+
+    public void testForgottenMultiEventWatcherWakesItsWaiter() throws Exception {
+        final EventManagerInstance instance = new EventManagerInstance();
+        final AtomicBoolean triggered = new AtomicBoolean();
+        Thread waiter = new Thread() {
+            public void run() {
+                MultiEventWatcher watcher = new MultiEventWatcher(instance);
+                watcher.addEvent(TestEvent.class);
+                watcher.addEvent(TestEvent2.class);
+                triggered.set(watcher.waitForAllEvents(3000));       //the watcher is not used after waiting
+            }
+        };
+        waiter.start();
+
+        collectGarbageWhile(waiter);
+        instance.triggerEvent(this, new TestEvent());
+        instance.triggerEvent(this, new TestEvent2());
+        waiter.join();
+        assertTrue(triggered.get());
+        instance.shutdown();
+    }
+
+    /**
+     * Runs the garbage collector a few times, giving a forgotten object the chance to be collected while the thread waits.
+     */
+    private void collectGarbageWhile(Thread waiting) {
+        for (int i = 0; i < 10 && waiting.isAlive(); i++) {
+            System.gc();
+            doSleep(20);
+        }
+    }
+
     public void testBlockingWaits() throws Exception {
 
         EventManagerInstance instance = new EventManagerInstance();
@@ -447,6 +594,34 @@ public class EventingTests extends TestCase {
 
     }
 
+    public void testAwaitEvent() throws Exception {
+        EventManagerInstance instance = new EventManagerInstance();
+
+        EventFuture future = instance.awaitEvent(TestEvent.class, 1000);
+        assertFalse(future.isDone());
+
+        triggerDelayed(instance, new TestEvent("payload"), null);
+
+        assertTrue(future.get().getPayload().equals("payload"));
+        assertFalse(future.isTimedOut());
+
+        final AtomicInteger doneCount = new AtomicInteger();
+        EventFuture timingOut = instance.awaitEvent(TestEvent2.class, 100);
+        timingOut.addCompletionListener(new EventFuture.CompletionListener() {
+            public void futureDone(EventFuture future) {
+                doneCount.incrementAndGet();
+            }
+        });
+
+        try {
+            timingOut.get();
+            fail("the future should have timed out");
+        } catch (ExecutionException e) {
+            assertTrue(timingOut.isTimedOut());
+        }
+        assertTrue(doneCount.get() == 1);
+    }
+
     public void testMultiEventWatcher() {
         EventManagerInstance instance = new EventManagerInstance();
 
@@ -502,6 +677,322 @@ public class EventingTests extends TestCase {
 
     }
 
+    public void testMultiEventWatcherWaitForALLeventsWithoutTimeout() {
+        EventManagerInstance instance = new EventManagerInstance();
+
+        MultiEventWatcher multiEventWatcher = new MultiEventWatcher(instance);
+        multiEventWatcher.addEvent(TestEvent.class);
+        multiEventWatcher.addEvent(TestEvent2.class);
+
+        triggerDelayed(instance, new TestEvent(), null);
+        triggerDelayed(instance, new TestEvent2(), null);
+
+        assertTrue(multiEventWatcher.waitForAllEventsThenUnregister(0));   //zero means never time out
+
+        multiEventWatcher.reEnableMultiEventWatcher();
+        triggerDelayed(instance, new TestEvent(), null);
+
+        assertFalse(multiEventWatcher.waitForAllEvents(500));    //triggered events are reset when re-enabled
+        multiEventWatcher.unregisterEvents();
+    }
+
+    public void testMultiEventWatcherReEnabledDuringDelivery() throws Exception {
+        final EventManagerInstance instance = new EventManagerInstance(1);
+        MultiEventWatcher multiEventWatcher = new MultiEventWatcher(instance);
+        multiEventWatcher.addEvent(TestEvent.class);
+
+        final AtomicBoolean triggering = new AtomicBoolean(true);
+        Thread trigger = new Thread() {
+            public void run() {
+                while (triggering.get())
+                    instance.triggerEvent(this, new TestEvent());
+            }
+        };
+        trigger.start();
+        try {
+            for (int i = 0; i < 1000; i++) {
+                multiEventWatcher.reEnableMultiEventWatcher();
+                assertTrue(multiEventWatcher.waitForAllEvents(1000));       //a delivery racing the reset must not use up the new round
+            }
+        } finally {
+            triggering.set(false);
+            trigger.join();
+        }
+        multiEventWatcher.unregisterEvents();
+        instance.shutdown();
+    }
+
+    public void testMultiEventWatcherWithoutEvents() {
+        MultiEventWatcher multiEventWatcher = new MultiEventWatcher(new EventManagerInstance());
+        try {
+            multiEventWatcher.waitForAllEvents(0);
+            fail();
+        } catch (IllegalStateException e) {
+        }
+    }
+
+    public void testPatternListeners() throws Exception {
+        EventManagerInstance instance = new EventManagerInstance();
+
+        final BlockingQueue<PatternMatchEvent> matches = new ArrayBlockingQueue<PatternMatchEvent>(10);
+        GenericEventListener receiver = new GenericEventListener() {
+            public void eventTriggered(Object sender, Event event) {
+                matches.add((PatternMatchEvent) event);
+            }
+        };
+
+        KeyExtractor byPayload = new KeyExtractor() {
+            public Object getKey(Object sender, Event event) {
+                return event.getPayload();
+            }
+        };
+
+        PatternMatcher followedBy = instance.registerPatternListener(receiver,
+                EventPattern.followedBy(TestEvent.class, TestEvent2.class, 300, TimeUnit.MILLISECONDS), byPayload);
+
+        instance.triggerEvent(this, new TestEvent("order-1"));
+        instance.triggerEvent(this, new TestEvent("order-2"));
+        doSleep(50);
+        instance.triggerEvent(this, new TestEvent2("order-1"));
+
+        PatternMatchEvent match = matches.poll(1000, TimeUnit.MILLISECONDS);
+        assertNotNull(match);
+        assertTrue(match.getKey().equals("order-1"));
+        assertTrue(match.getEvents().size() == 2);
+
+        doSleep(400);
+        instance.triggerEvent(this, new TestEvent2("order-2"));          //too late, order-2 has expired
+        assertNull(matches.poll(300, TimeUnit.MILLISECONDS));
+        assertTrue(followedBy.getPartialMatchCount() == 0);
+        followedBy.unregister();
+
+        PatternMatcher twoOfThree = instance.registerPatternListener(receiver,
+                EventPattern.nOf(2, TestEvent.class, TestEvent2.class, EventObject.class), null);
+
+        instance.triggerEvent(this, new EventObject());
+        doSleep(50);
+        instance.triggerEvent(this, new EventObject());                   //the same type twice only counts once
+        assertNull(matches.poll(200, TimeUnit.MILLISECONDS));
+
+        instance.triggerEvent(this, new TestEvent());
+        assertNotNull(matches.poll(1000, TimeUnit.MILLISECONDS));
+        twoOfThree.unregister();
+    }
+
+    public void testPatternMatcherStopsWithItsSubscriptions() {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+        EventManagerInstance instance = new EventManagerInstance(scheduler);
+        GenericEventListener receiver = new GenericEventListener() {
+            public void eventTriggered(Object sender, Event event) {
+            }
+        };
+
+        PatternMatcher matcher = instance.registerPatternListener(receiver,
+                EventPattern.sequenceWithin(1, TimeUnit.MINUTES, TestEvent.class, TestEvent2.class), null);
+        instance.triggerEvent(this, new TestEvent());
+        doSleep(100);
+        assertTrue(matcher.getPartialMatchCount() == 1);
+
+        instance.unregisterAllEventSubscriptions();
+        assertTrue(matcher.getPartialMatchCount() == 0);
+        for (Runnable task : scheduler.getQueue())
+            assertTrue(((Future<?>) task).isCancelled());                  //the purger has been stopped
+        instance.shutdown();
+    }
+
+    public void testPatternsTakeOnlyEventTypes() {
+        try {
+            EventPattern.sequence(TestEvent.class, String.class);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    public void testLastValueCache() throws Exception {
+        EventManagerInstance instance = new EventManagerInstance();
+
+        instance.enableLastValueCache(TestEvent.class, new KeyExtractor() {
+            public Object getKey(Object sender, Event event) {
+                return ((String) event.getPayload()).substring(0, 1);
+            }
+        }, 2, 0, TimeUnit.SECONDS);
+
+        instance.triggerEvent(this, new TestEvent("a1"));
+        instance.triggerEvent(this, new TestEvent("b1"));
+        doSleep(100);
+        instance.triggerEvent(this, new TestEvent("a2"));
+        doSleep(100);
+
+        assertTrue(instance.getLastValue(TestEvent.class, "a").getPayload().equals("a2"));
+
+        instance.triggerEvent(this, new TestEvent("c1"));           //evicts the least recently used key, b
+        doSleep(100);
+        assertNull(instance.getLastValue(TestEvent.class, "b"));
+        assertTrue(instance.getLastValue(TestEvent.class, "c").getPayload().equals("c1"));
+
+        final BlockingQueue<Event> queue = new ArrayBlockingQueue<Event>(10);
+        instance.registerEventListener(null, new GenericEventListener() {
+            public void eventTriggered(Object sender, Event event) {
+                queue.add(event);
+            }
+        }, TestEvent.class, null, true);
+
+        assertNotNull(queue.poll(1000, TimeUnit.MILLISECONDS));    //the cached a2 and c1 are delivered at once
+        assertNotNull(queue.poll(1000, TimeUnit.MILLISECONDS));
+        assertNull(queue.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    public void testLastValuesAreDeliveredBeforeLiveEvents() throws Exception {
+        EventManagerInstance[] instances = { new EventManagerInstance(), new EventManagerInstance(1) };
+        for (EventManagerInstance instance : instances) {
+            instance.enableLastValueCache(TestEvent.class, null, 1, 0, TimeUnit.SECONDS);
+            instance.triggerEvent(this, new TestEvent(0));
+            doSleep(100);
+
+            final List<Integer> received = new ArrayList<Integer>();
+            instance.registerEventListener(null, new GenericEventListener() {
+                public void eventTriggered(Object sender, Event event) {
+                    if (event.getPayload().equals(0))
+                        doSleep(50);                                  //the live event below is triggered meanwhile
+                    synchronized (received) {
+                        received.add((Integer) event.getPayload());
+                    }
+                }
+            }, TestEvent.class, null, true);
+
+            instance.triggerEvent(this, new TestEvent(1));
+            doSleep(300);
+
+            assertReceivedInOrder(received, 2);
+            instance.shutdown();
+        }
+    }
+
+    public void testReplayingListener() throws Exception {
+        EventManagerInstance instance = new EventManagerInstance();
+        instance.enableEventHistory(TestEvent.class, 3);
+
+        for (int i = 1; i <= 5; i++) {
+            instance.triggerEvent(this, new TestEvent(i));
+            doSleep(20);
+        }
+        doSleep(100);
+
+        List<Event> history = instance.getEventHistory(TestEvent.class, 10, 0, TimeUnit.SECONDS);
+        assertTrue(history.size() == 3);                                 //bounded by the capacity of the ring
+        assertTrue(history.get(0).getPayload().equals(3));
+
+        final List<Object> replayed = new ArrayList<Object>();
+        instance.registerReplayingEventListener(new GenericEventListener() {
+            public void eventTriggered(Object sender, Event event) {
+                synchronized (replayed) {
+                    replayed.add(event.getPayload());
+                }
+            }
+        }, TestEvent.class, 2, 0, TimeUnit.SECONDS);
+
+        doSleep(200);
+
+        synchronized (replayed) {
+            assertTrue(replayed.size() == 2);
+            assertTrue(replayed.get(0).equals(4) && replayed.get(1).equals(5));   //the last two, oldest first
+        }
+    }
+
+    public void testReplayingListenerHoldsBackLiveEvents() throws Exception {
+        EventManagerInstance instance = new EventManagerInstance(1);       //a dispatcher keeps the live events in the order triggered
+        instance.enableEventHistory(TestEvent.class, 5);
+
+        for (int i = 0; i < 5; i++)
+            instance.triggerEvent(this, new TestEvent(i));
+        doSleep(100);
+
+        final List<Integer> received = new ArrayList<Integer>();
+        instance.registerReplayingEventListener(new GenericEventListener() {
+            public void eventTriggered(Object sender, Event event) {
+                doSleep(20);                                              //the live events below are triggered during the replay
+                synchronized (received) {
+                    received.add((Integer) event.getPayload());
+                }
+            }
+        }, TestEvent.class, 5, 0, TimeUnit.SECONDS);
+
+        for (int i = 5; i < 10; i++)
+            instance.triggerEvent(this, new TestEvent(i));
+        doSleep(500);
+
+        assertReceivedInOrder(received, 10);
+    }
+
+    public void testRecordedEventsAreDeliveredOutsideTheLock() throws Exception {
+        EventManagerInstance[] instances = { new EventManagerInstance(), new EventManagerInstance(1) };
+        for (final EventManagerInstance instance : instances) {
+            instance.enableEventHistory(TestEvent.class, 5);
+            instance.enableLastValueCache(TestEvent.class, null, 1, 0, TimeUnit.SECONDS);
+
+            final AtomicBoolean registeredDuringDelivery = new AtomicBoolean();
+            final CountDownLatch delivered = new CountDownLatch(1);
+            instance.registerEventListener(new GenericEventListener() {
+                public void eventTriggered(Object sender, Event event) {
+                    Thread registering = new Thread() {
+                        public void run() {
+                            instance.registerEventListener(new GenericEventListener() {
+                                public void eventTriggered(Object sender, Event event) {
+                                }
+                            }, TestEvent2.class);
+                        }
+                    };
+                    registering.start();
+                    try {
+                        registering.join(1000);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    registeredDuringDelivery.set(!registering.isAlive());    //registering would wait for the listener to return if it held the lock
+                    delivered.countDown();
+                }
+            }, TestEvent.class);
+
+            instance.triggerEvent(this, new TestEvent(1));
+            assertTrue(delivered.await(5, TimeUnit.SECONDS));
+            assertTrue(registeredDuringDelivery.get());
+            instance.shutdown();
+        }
+    }
+
+    public void testWeakEventListener() {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+        EventManagerInstance instance = new EventManagerInstance(scheduler);
+
+        final AtomicInteger received = new AtomicInteger();
+        GenericEventListener kept = new GenericEventListener() {
+            public void eventTriggered(Object sender, Event event) {
+                received.incrementAndGet();
+            }
+        };
+        instance.registerWeakEventListener(kept, TestEvent.class);
+
+        new EventWatcher(instance, TestEvent.class);      //forgotten without being unregistered
+
+        assertTrue(instance.getEventListenerCount(TestEvent.class) == 2);
+        assertTrue(scheduler.getQueue().isEmpty());       //no purge timer keeping the event manager alive
+
+        int triggered = 0;
+        for (int i = 0; i < 20 && instance.getStatus(0).getSubscriberCounts().get(0).getUnconditionalSubscribers() > 1; i++) {
+            System.gc();
+            doSleep(50);
+            instance.triggerEvent(this, new TestEvent());
+            triggered++;
+        }
+        assertTrue(instance.getStatus(0).getSubscriberCounts().get(0).getUnconditionalSubscribers() == 1);    //the watcher's subscription was purged when triggering
+
+        doSleep(200);
+        assertTrue(received.get() == triggered);          //the listener still referenced keeps receiving events
+
+        instance.unregisterEventListener(kept, TestEvent.class);
+        assertTrue(instance.getEventListenerCount(TestEvent.class) == 0);
+    }
+
     public void testContexts() {
         EventManagerInstance instance = new EventManagerInstance();
 
@@ -542,82 +1033,1176 @@ public class EventingTests extends TestCase {
 
     }
 
-    public void testPerformance() {
+    public void testDebouncedThrottledAndSampledListeners() {
         EventManagerInstance instance = new EventManagerInstance();
 
-        instance.unregisterAllEventSubscriptions();
-
-        class State {
-
-            public int noOfTriggeredEvent = 0;
-        }
-
-        final State state = new State();
+        final AtomicInteger debounced = new AtomicInteger();
+        final AtomicInteger throttled = new AtomicInteger();
+        final AtomicInteger sampled = new AtomicInteger();
 
-        instance.registerEventListener(new GenericEventListener() {
+        instance.registerDebouncedEventListener(new GenericEventListener() {
+            public void eventTriggered(Object sender, Event event) {
+                debounced.incrementAndGet();
+            }
+        }, TestEvent.class, 100, TimeUnit.MILLISECONDS);
 
+        instance.registerThrottledEventListener(new GenericEventListener() {
             public void eventTriggered(Object sender, Event event) {
-                state.noOfTriggeredEvent += 1;
+                throttled.incrementAndGet();
             }
-        }, EventObject.class);
+        }, TestEvent.class, 200, TimeUnit.MILLISECONDS);
 
+        GenericEventListener sampledListener = new GenericEventListener() {
+            public void eventTriggered(Object sender, Event event) {
+                sampled.incrementAndGet();
+            }
+        };
+        instance.registerSampledEventListener(sampledListener, TestEvent.class, 100, TimeUnit.MILLISECONDS);
 
-        System.out.println("Entering pretest..");
-        long preEvents = 1000;
-        for (int j = 0; j < preEvents; j++) {
-            instance.triggerEvent(this, new EventObject());
-        }
+        for (int i = 0; i < 10; i++)
+            instance.triggerEvent(this, new TestEvent());
 
-        while (state.noOfTriggeredEvent < preEvents) {
-            try {
-                Thread.sleep(100);
-            } catch (InterruptedException e) {
-                e.printStackTrace();  //To change body of catch statement use File | Settings | File Templates.
-            }
-        }
+        doSleep(500);
 
-        state.noOfTriggeredEvent = 0;
-        System.out.println("Starting test..");
+        assertTrue(debounced.get() == 1);      //only the last event of the burst
+        assertTrue(throttled.get() == 2);      //the first event, then the last one when the period ended
+        assertTrue(sampled.get() == 1);        //one sample, later periods had no events
 
-        long seconds = 2;
-        long start = System.currentTimeMillis();
+        instance.unregisterEventListener(sampledListener, TestEvent.class);
+        instance.triggerEvent(this, new TestEvent());
 
-        int i = 0;
-        while (System.currentTimeMillis() < start + (seconds * 1000)) {
-            i += 1;
-            instance.triggerEvent(this, new EventObject());
-        }
+        doSleep(300);
 
-        System.out.println("Received events per second = " + state.noOfTriggeredEvent / seconds + ", sent events per second = " + i / seconds);
+        assertTrue(sampled.get() == 1);        //unregistering the receiver removes the sampling wrapper
     }
 
-    private void triggerDelayed(final EventManagerInstance instance, final Event event, final Object condition) {
-        new Thread(new Runnable() {
+    public void testWindowedListeners() throws Exception {
+        EventManagerInstance instance = new EventManagerInstance();
 
-            public void run() {
-                try {
-                    Thread.sleep(200);
-                    if (condition != null) {
-                        instance.triggerEvent(this, event, condition);
-                    } else {
-                        instance.triggerEvent(this, event);
-                    }
-                } catch (InterruptedException e) {
-                }
+        final BlockingQueue<WindowEvent> batches = new ArrayBlockingQueue<WindowEvent>(10);
+        final BlockingQueue<WindowEvent> sums = new ArrayBlockingQueue<WindowEvent>(10);
+
+        instance.registerWindowedEventListener(new GenericEventListener() {
+            public void eventTriggered(Object sender, Event event) {
+                batches.add((WindowEvent) event);
             }
-        }).start();
-    }
+        }, TestEvent.class, EventWindow.tumblingCount(5));
 
-    private void doSleep(long timeout) {
-        try {
-            Thread.sleep(timeout);
-        } catch (InterruptedException e) {
+        instance.registerWindowedEventListener(new GenericEventListener() {
+            public void eventTriggered(Object sender, Event event) {
+                sums.add((WindowEvent) event);
+            }
+        }, TestEvent.class, EventWindow.tumblingTime(300, TimeUnit.MILLISECONDS), new EventAggregator() {
+            public Object aggregate(Object accumulator, Event event) {
+                int sum = accumulator == null ? 0 : (Integer) accumulator;
+                return sum + (Integer) event.getPayload();
+            }
+        });
+
+        for (int i = 1; i <= 10; i++)
+            instance.triggerEvent(this, new TestEvent(i));
+
+        WindowEvent batch = batches.poll(1000, TimeUnit.MILLISECONDS);
+        assertNotNull(batch);
+        assertTrue(batch.getEvents().size() == 5);
+        assertNotNull(batches.poll(1000, TimeUnit.MILLISECONDS));
+        assertNull(batches.poll(100, TimeUnit.MILLISECONDS));          //only two full windows
+
+        int eventCount = 0;
+        int total = 0;
+        while (eventCount < 10) {                                      //the burst may straddle two time windows
+            WindowEvent sum = sums.poll(1000, TimeUnit.MILLISECONDS);
+            assertNotNull(sum);
+            eventCount += sum.getEventCount();
+            total += (Integer) sum.getPayload();
         }
+        assertTrue(eventCount == 10);
+        assertTrue(total == 55);
+        assertNull(sums.poll(400, TimeUnit.MILLISECONDS));             //empty windows are not delivered
     }
 
-    class TestEvent extends EventObject {
+    public void testWindowsAreDeliveredInOrder() {
+        EventManagerInstance instance = new EventManagerInstance();
+        final List<WindowEvent> windows = new ArrayList<WindowEvent>();
+        instance.registerWindowedEventListener(new GenericEventListener() {
+            public void eventTriggered(Object sender, Event event) {
+                Thread.yield();
+                synchronized (windows) {
+                    windows.add((WindowEvent) event);
+                }
+            }
+        }, TestEvent.class, EventWindow.slidingCount(2, 1));
 
-        public TestEvent() {
+        for (int i = 0; i < 2000; i++)
+            instance.triggerEvent(this, new TestEvent(i));
+        doSleep(500);
+
+        synchronized (windows) {
+            assertTrue(windows.size() == 2000);
+            for (int i = 1; i < windows.size(); i++) {
+                List<Event> previous = windows.get(i - 1).getEvents();
+                assertTrue(previous.get(previous.size() - 1) == windows.get(i).getEvents().get(0));   //each window slides on from the one before
+            }
+        }
+        instance.shutdown();
+    }
+
+    public void testPublisherHonoursDemand() throws Exception {
+        EventManagerInstance instance = new EventManagerInstance();
+
+        EventPublisher publisher = instance.createPublisher(TestEvent.class, null, 4);
+
+        final BlockingQueue<Event> received = new ArrayBlockingQueue<Event>(10);
+        final FlowSubscription[] subscriptionHolder = new FlowSubscription[1];
+        final AtomicInteger completions = new AtomicInteger();
+
+        publisher.subscribe(new EventSubscriber() {
+            public void onSubscribe(FlowSubscription subscription) {
+                subscriptionHolder[0] = subscription;
+                subscription.request(2);
+            }
+
+            public void onNext(Event event) {
+                received.add(event);
+            }
+
+            public void onError(Throwable throwable) {
+            }
+
+            public void onComplete() {
+                completions.incrementAndGet();
+            }
+        });
+
+        for (int i = 0; i < 6; i++)
+            instance.triggerEvent(this, new TestEvent(i));
+
+        doSleep(300);
+
+        assertTrue(received.size() == 2);                       //only the requested events are delivered
+
+        subscriptionHolder[0].request(10);
+        doSleep(100);
+
+        assertTrue(received.size() + publisher.getDroppedEventCount() == 6);   //the rest were buffered, at most 4 of them
+        assertTrue(received.size() >= 4);
+
+        publisher.complete();
+        doSleep(100);
+        assertTrue(completions.get() == 1);
+    }
+
+    public void testPublisherSubscriptionsEndedInOnSubscribe() {
+        EventManagerInstance instance = new EventManagerInstance();
+        EventPublisher publisher = instance.createPublisher(TestEvent.class);
+        final AtomicInteger errors = new AtomicInteger();
+
+        for (int i = 0; i < 2; i++) {
+            final boolean cancel = i == 0;
+            publisher.subscribe(new EventSubscriber() {
+                public void onSubscribe(FlowSubscription subscription) {
+                    if (cancel)
+                        subscription.cancel();
+                    else
+                        subscription.request(0);
+                }
+
+                public void onNext(Event event) {
+                }
+
+                public void onError(Throwable throwable) {
+                    errors.incrementAndGet();
+                }
+
+                public void onComplete() {
+                }
+            });
+        }
+
+        assertTrue(instance.getEventListenerCount(TestEvent.class) == 0);    //neither is left registered
+        assertTrue(errors.get() == 1);
+        instance.shutdown();
+    }
+
+    public void testContextTeardown() {
+        EventManagerInstance instance = new EventManagerInstance();
+
+        instance.unregisterAllEventListenersForContext("unknownContext");       //must not fail
+
+        GenericEventListener eventListener = new GenericEventListener() {
+            public void eventTriggered(Object sender, Event event) {
+            }
+        };
+        for (int i = 0; i < 1000; i++) {
+            instance.registerEventListener("session" + i, new GenericEventListener() {
+                public void eventTriggered(Object sender, Event event) {
+                }
+            }, TestEvent.class);
+        }
+        instance.registerEventListener("session0", eventListener, TestEvent2.class);
+
+        assertTrue(instance.getContextCount() == 1000);
+        assertTrue(instance.getEventListenerCount(TestEvent.class) == 1000);
+
+        instance.unregisterEventListener(eventListener, TestEvent2.class);
+        for (int i = 0; i < 1000; i++)
+            instance.unregisterAllEventListenersForContext("session" + i);
+
+        assertTrue(instance.getContextCount() == 0);                            //no context entries are left behind
+        assertTrue(instance.getEventListenerCount(TestEvent.class) == 0);
+        assertTrue(instance.getEventListenerCount(TestEvent2.class) == 0);
+
+        instance.registerEventListener("session0", eventListener, TestEvent.class);
+        instance.unregisterAllEventSubscriptions();
+        assertTrue(instance.getContextCount() == 0);
+    }
+
+    public void testPartitionedEventManagerKeepsOrderPerKey() {
+        PartitionedEventManager manager = new PartitionedEventManager(4);
+
+        final List<Integer> customerA = new ArrayList<Integer>();
+        final List<Integer> customerB = new ArrayList<Integer>();
+
+        manager.registerEventListener(new GenericEventListener() {
+            public void eventTriggered(Object sender, Event event) {
+                List<Integer> received = sender.equals("A") ? customerA : customerB;
+                synchronized (received) {
+                    received.add((Integer) event.getPayload());
+                }
+            }
+        }, TestEvent.class);
+
+        for (int i = 0; i < 1000; i++) {
+            manager.triggerPartitionedEvent("A", "A", new TestEvent(i), null);
+            manager.triggerPartitionedEvent("B", "B", new TestEvent(i), null);
+        }
+
+        doSleep(500);
+        manager.shutdown();
+
+        assertReceivedInOrder(customerA, 1000);
+        assertReceivedInOrder(customerB, 1000);
+    }
+
+    public void testDispatcherThreads() {
+        EventManagerInstance instance = new EventManagerInstance(2);
+
+        final List<Integer> received = new ArrayList<Integer>();
+        final List<Integer> receivedWithCondition = new ArrayList<Integer>();
+
+        GenericEventListener eventListener = new GenericEventListener() {
+            public void eventTriggered(Object sender, Event event) {
+                synchronized (received) {
+                    received.add((Integer) event.getPayload());
+                }
+            }
+        };
+        instance.registerEventListener(eventListener, TestEvent.class);
+
+        for (int i = 0; i < 1000; i++)
+            instance.triggerEvent(this, new TestEvent(i));
+
+        instance.registerEventListener(new GenericEventListener() {            //registered after the subscribers were cached
+            public void eventTriggered(Object sender, Event event) {
+                synchronized (receivedWithCondition) {
+                    receivedWithCondition.add((Integer) event.getPayload());
+                }
+            }
+        }, TestEvent.class, new Condition() {
+            public boolean matches(Object sender, Event event, Object conditionalExpression) {
+                return conditionalExpression.equals("even");
+            }
+        });
+
+        for (int i = 1000; i < 2000; i++)
+            instance.triggerEvent(this, new TestEvent(i), i % 2 == 0 ? "even" : "odd");
+
+        doSleep(500);
+        assertReceivedInOrder(received, 2000);
+        synchronized (receivedWithCondition) {
+            assertTrue(receivedWithCondition.size() == 500);
+            assertTrue(receivedWithCondition.get(0) == 1000);
+        }
+
+        instance.unregisterEventListener(eventListener, TestEvent.class);
+        instance.triggerEvent(this, new TestEvent(2000));
+        doSleep(200);
+        synchronized (received) {
+            assertTrue(received.size() == 2000);
+        }
+
+        final AtomicInteger count = new AtomicInteger();
+        instance.registerEventListener(new GenericEventListener() {
+            public void eventTriggered(Object sender, Event event) {
+                count.incrementAndGet();
+            }
+        }, TestEvent2.class);
+
+        int events = 1000000;
+        for (int i = 0; i < events; i++)
+            instance.triggerEvent(this, new TestEvent2());
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (count.get() < events && System.nanoTime() - deadline < 0)
+            Thread.yield();
+        assertTrue(count.get() == events);                               //every event of the burst delivered exactly once
+        doSleep(100);
+        assertTrue(count.get() == events);
+
+        instance.shutdown();
+    }
+
+    public void testDispatcherThreadsDoNotAllocate() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean))
+            return;                                                     //allocation counters not available on this VM
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        EventManagerInstance instance = new EventManagerInstance(1, 1024);
+        final AtomicInteger count = new AtomicInteger();
+        instance.registerEventListener(new GenericEventListener() {
+            public void eventTriggered(Object sender, Event event) {
+                count.incrementAndGet();
+            }
+        }, TestEvent2.class);
+
+        long dispatcherId = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("EventDispatcher-0"))
+                dispatcherId = thread.getId();
+        }
+
+        int events = 200000;
+        TestEvent2 event = new TestEvent2();
+        for (int i = 0; i < events; i++)                                //warm up
+            instance.triggerEvent(this, event);
+        while (count.get() < events)
+            Thread.yield();
+
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId) + threadMXBean.getThreadAllocatedBytes(dispatcherId);
+        for (int i = 0; i < events; i++)
+            instance.triggerEvent(this, event);
+        while (count.get() < 2 * events)
+            Thread.yield();
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId) + threadMXBean.getThreadAllocatedBytes(dispatcherId) - allocatedBefore;
+
+        instance.shutdown();
+        assertTrue(allocated < events / 100);                            //no allocation per event, only a few bytes for measuring
+    }
+
+    public void testPrimitiveEvents() {
+        EventManagerInstance instance = new EventManagerInstance();
+
+        final AtomicInteger longSum = new AtomicInteger();
+        final List<Double> doubles = new ArrayList<Double>();
+
+        LongEventListener longEventListener = new LongEventListener() {
+            public void eventTriggered(Object sender, LongEvent event, long value) {
+                longSum.addAndGet((int) value);
+            }
+        };
+        instance.registerLongEventListener(longEventListener, LatencyEvent.class);
+        instance.registerDoubleEventListener(new DoubleEventListener() {
+            public void eventTriggered(Object sender, DoubleEvent event, double value) {
+                synchronized (doubles) {
+                    doubles.add(value);
+                }
+            }
+        }, DoubleEvent.class);
+
+        for (int i = 1; i <= 10; i++)
+            instance.triggerEvent(this, new LatencyEvent(i));
+        instance.triggerEvent(this, new DoubleEvent(0.5));
+        doSleep(200);
+
+        assertTrue(longSum.get() == 55);
+        synchronized (doubles) {
+            assertTrue(doubles.size() == 1 && doubles.get(0) == 0.5);
+        }
+        assertTrue(new LatencyEvent(7).getPayload().equals(Long.valueOf(7)));
+
+        instance.unregisterLongEventListener(longEventListener, LatencyEvent.class);
+        assertTrue(instance.getEventListenerCount(LatencyEvent.class) == 0);
+        instance.shutdown();
+    }
+
+    public void testAnnotatedListeners() {
+        EventManagerInstance instance = new EventManagerInstance();
+        AnnotatedSubscriber subscriber = new AnnotatedSubscriber();
+
+        instance.registerAnnotatedListeners(subscriber);
+        assertTrue(instance.getEventListenerCount(TestEvent.class) == 2);
+        assertTrue(instance.getEventListenerCount(TestEvent2.class) == 1);
+
+        instance.triggerEvent(this, new TestEvent(1));
+        instance.triggerEvent(this, new TestEvent2());
+        doSleep(200);
+        assertTrue(subscriber.withSender.get() == 1);
+        assertTrue(subscriber.withoutSender.get() == 1);
+        assertTrue(subscriber.inherited.get() == 1);
+
+        instance.unregisterAnnotatedListeners(subscriber);
+        assertTrue(instance.getEventListenerCount(TestEvent.class) == 0);
+        assertTrue(instance.getEventListenerCount(TestEvent2.class) == 0);
+        instance.shutdown();
+    }
+
+    public void testGeneratedSubscriberFactories() throws Exception {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null)
+            return;                                                     //no compiler on this VM to run the annotation processor
+
+        File directory = File.createTempFile("subscribers", "");
+        directory.delete();
+        File sourceDirectory = new File(directory, "generated");
+        sourceDirectory.mkdirs();
+        File source = new File(sourceDirectory, "Counter.java");
+        FileWriter writer = new FileWriter(source);
+        writer.write("package generated;\n"
+                + "public class Counter {\n"
+                + "    public int received;\n"
+                + "    @javaEventing.Subscribe\n"
+                + "    public void count(javaEventing.EventObject event) {\n"
+                + "        received++;\n"
+                + "    }\n"
+                + "    @javaEventing.Subscribe\n"
+                + "    public void count(Object sender, javaEventing.EventObject event) {\n"
+                + "        received++;\n"
+                + "    }\n"
+                + "}\n");
+        writer.close();
+
+        StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null);
+        JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, null,
+                Arrays.asList("-d", directory.getPath(), "-classpath", System.getProperty("java.class.path")), null,
+                fileManager.getJavaFileObjects(source));
+        task.setProcessors(Collections.singleton(new SubscribeProcessor()));
+        assertTrue(task.call());
+        fileManager.close();
+
+        URLClassLoader classLoader = new URLClassLoader(new URL[] {directory.toURI().toURL()}, getClass().getClassLoader());
+        Class<?> counterClass = classLoader.loadClass("generated.Counter");
+        assertTrue(SubscriberFactories.get(counterClass).getClass().getName().equals("generated.Counter_Subscribers"));
+
+        EventManagerInstance instance = new EventManagerInstance(Executors.newScheduledThreadPool(1));
+        Object first = counterClass.getConstructor().newInstance();
+        Object second = counterClass.getConstructor().newInstance();
+        instance.registerAnnotatedListeners(first);
+        instance.registerAnnotatedListeners(second);
+        instance.triggerEvent(this, new EventObject());
+        doSleep(200);
+        assertTrue(counterClass.getField("received").getInt(first) == 2);    //both overloads called through the generated factory
+        assertTrue(counterClass.getField("received").getInt(second) == 2);
+
+        List<SubscriberMethod> methods = SubscriberFactories.get(counterClass).createSubscribers(first);
+        assertTrue(methods.get(0).equals(SubscriberFactories.get(counterClass).createSubscribers(first).get(0)));
+        assertFalse(methods.get(0).equals(methods.get(1)));
+        assertFalse(methods.get(0).equals(SubscriberFactories.get(counterClass).createSubscribers(second).get(0)));
+
+        instance.unregisterAnnotatedListeners(first);
+        assertTrue(instance.getEventListenerCount(EventObject.class) == 2);
+        instance.shutdown();
+        delete(directory);
+    }
+
+    private void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children)
+                delete(child);
+        }
+        file.delete();
+    }
+
+    public void testDeclarativeConditions() {
+        EventManagerInstance instance = new EventManagerInstance();
+        final AtomicInteger euOrders = new AtomicInteger();
+        final AtomicInteger largeEuOrders = new AtomicInteger();
+        final AtomicInteger nordicOrSmallOrders = new AtomicInteger();
+
+        instance.registerEventListener(new GenericEventListener() {
+            public void eventTriggered(Object sender, Event event) {
+                euOrders.incrementAndGet();
+            }
+        }, TestEvent.class, DeclarativeCondition.fieldEquals("region", "EU"));
+        instance.registerEventListener(new GenericEventListener() {
+            public void eventTriggered(Object sender, Event event) {
+                largeEuOrders.incrementAndGet();
+            }
+        }, TestEvent.class, DeclarativeCondition.and(DeclarativeCondition.fieldEquals("region", "EU"), DeclarativeCondition.fieldBetween("amount", 100, null)));
+        instance.registerEventListener(new GenericEventListener() {
+            public void eventTriggered(Object sender, Event event) {
+                nordicOrSmallOrders.incrementAndGet();
+            }
+        }, TestEvent.class, DeclarativeCondition.or(DeclarativeCondition.fieldIn("country", "NO", "SE", "DK"), DeclarativeCondition.fieldBetween("amount", 0, 10)));
+
+        Order eu = new Order("EU", "NO", 500);
+        instance.triggerEvent(this, new TestEvent(), eu);
+        instance.triggerEvent(this, new TestEvent(), new Order("EU", "FR", 5));
+        instance.triggerEvent(this, new TestEvent(), new Order("US", "US", 50));
+        instance.triggerEvent(this, new TestEvent());                                //no conditional expression, no conditional listener called
+        doSleep(200);
+
+        assertTrue(euOrders.get() == 2);
+        assertTrue(largeEuOrders.get() == 1);
+        assertTrue(nordicOrSmallOrders.get() == 2);
+        assertTrue(eu.regionReads == 1);                                             //shared by two listeners, read once
+        assertTrue(DeclarativeCondition.fieldEquals("region", "EU").matches(this, new TestEvent(), eu));
+        instance.shutdown();
+    }
+
+    public void testRequestReply() throws Exception {
+        final EventManagerInstance instance = new EventManagerInstance();
+
+        instance.registerEventListener(new GenericEventListener() {
+            public void eventTriggered(Object sender, Event event) {
+                PriceRequest request = (PriceRequest) event;
+                instance.triggerEvent(this, new PriceReply((Integer) request.getPayload() * 2, request.getCorrelationId()));
+            }
+        }, PriceRequest.class);
+
+        List<EventFuture> futures = new ArrayList<EventFuture>();
+        for (int i = 0; i < 100; i++)
+            futures.add(instance.request(this, new PriceRequest(i), PriceReply.class, 5000));
+        for (int i = 0; i < 100; i++)
+            assertTrue(futures.get(i).get().getPayload().equals(i * 2));           //each request gets its own reply
+        assertTrue(instance.getPendingRequestCount(PriceReply.class) == 0);
+        assertTrue(instance.getEventListenerCount(PriceReply.class) == 1);        //one shared reply listener
+
+        EventFuture unanswered = instance.request(this, new PriceRequest(0), TestReply.class, 100);
+        try {
+            unanswered.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(unanswered.isTimedOut());
+        }
+        assertTrue(instance.getPendingRequestCount(TestReply.class) == 0);
+        instance.shutdown();
+    }
+
+    public void testFailedRequests() throws Exception {
+        EventManagerInstance instance = new EventManagerInstance();
+        instance.setEventClassRateLimit(PriceRequest.class, 0.001, 1);
+
+        EventFuture pending = instance.request(this, new PriceRequest(1), PriceReply.class, 0);
+        EventFuture dropped = instance.request(this, new PriceRequest(2), PriceReply.class, 1000);
+        assertFailedWithRejection(dropped);                                        //dropped by the rate limit
+        assertTrue(instance.getPendingRequestCount(PriceReply.class) == 1);
+
+        instance.shutdown();
+        assertFailedWithRejection(pending);                                        //can no longer get a reply
+        assertTrue(instance.getPendingRequestCount(PriceReply.class) == 0);
+
+        assertFailedWithRejection(instance.request(this, new PriceRequest(3), PriceReply.class, 1000));
+        assertTrue(instance.getPendingRequestCount(PriceReply.class) == 0);
+    }
+
+    private void assertFailedWithRejection(EventFuture future) throws InterruptedException {
+        assertTrue(future.isDone());
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+
+    public void testEventTracer() throws Exception {
+        EventManagerInstance[] instances = {new EventManagerInstance(), new EventManagerInstance(1)};
+        for (EventManagerInstance instance : instances) {
+            EventTracer tracer = new EventTracer(10, 5);
+            instance.setEventTracer(tracer);
+            GenericEventListener listener = new GenericEventListener() {
+                public void eventTriggered(Object sender, Event event) {
+                    doSleep(1);
+                }
+            };
+            instance.registerWeakEventListener(listener, TestEvent.class);
+
+            for (int i = 0; i < 100; i++)
+                instance.triggerEvent(this, new TestEvent(i));
+            doSleep(500);
+            assertTrue(tracer.getTraceCount() == 10);                              //every 10th event sampled
+
+            File file = File.createTempFile("eventTrace", ".json");
+            tracer.writeChromeTrace(file);
+            BufferedReader reader = new BufferedReader(new FileReader(file));
+            StringBuilder json = new StringBuilder();
+            for (String line = reader.readLine(); line != null; line = reader.readLine())
+                json.append(line).append('\n');
+            reader.close();
+            file.delete();
+
+            assertTrue(json.toString().trim().startsWith("[") && json.toString().trim().endsWith("]"));
+            assertTrue(json.toString().split("\"name\":\"queued\"").length - 1 == 5);        //only the 5 most recent kept
+            assertTrue(json.toString().split("\"name\":\"match\"").length - 1 == 5);
+            assertTrue(json.toString().split("\"name\":\"javaEventing.EventManagerTests.EventingTests\\$").length - 1 == 5);   //named after the listener, not its wrapper
+            assertTrue(listener != null);                                        //keeps the weakly registered listener reachable until here
+            instance.shutdown();
+        }
+    }
+
+    public void testDispatchProbe() {
+        EventManagerInstance[] instances = {new EventManagerInstance(), new EventManagerInstance(1, 2)};
+        for (EventManagerInstance instance : instances) {
+            final List<String> reported = new ArrayList<String>();
+            instance.setDispatchProbe(new DispatchProbe() {
+                public void eventTriggered(Class<? extends Event> eventClass, long durationNanos) {
+                    report("trigger");
+                }
+
+                public void batchDispatched(int eventCount, long durationNanos) {
+                    report("batch");
+                }
+
+                public void listenerInvoked(Class<?> listenerClass, Class<? extends Event> eventClass, long durationNanos) {
+                    report(listenerClass == SlowListener.class ? "slow listener" : "fast listener");
+                }
+
+                public void queueStalled(Class<? extends Event> eventClass, long durationNanos) {
+                    report("stall");
+                }
+
+                private void report(String what) {
+                    synchronized (reported) {
+                        reported.add(what);
+                    }
+                }
+            }, 20, TimeUnit.MILLISECONDS);
+
+            instance.registerEventListener(new SlowListener(), TestEvent.class);
+            instance.registerEventListener(new GenericEventListener() {
+                public void eventTriggered(Object sender, Event event) {
+                }
+            }, TestEvent.class);
+
+            for (int i = 0; i < 5; i++)
+                instance.triggerEvent(this, new TestEvent(i));
+            doSleep(500);
+
+            synchronized (reported) {
+                assertTrue(Collections.frequency(reported, "slow listener") == 5);
+                assertTrue(!reported.contains("fast listener"));                   //below the threshold
+                if (instance == instances[1]) {
+                    assertTrue(reported.contains("stall"));                         //5 slow events do not fit in a queue of 2
+                    assertTrue(reported.contains("batch"));
+                }
+            }
+            instance.shutdown();
+        }
+    }
+
+    public void testStatus() throws Exception {
+        EventManagerInstance instance = new EventManagerInstance();
+        instance.setListenerStatisticsEnabled(true);
+
+        final TriggerLatch release = new TriggerLatch();
+        instance.registerEventListener("session", new GenericEventListener() {
+            public void eventTriggered(Object sender, Event event) {
+                release.await(0);
+            }
+        }, TestEvent.class);
+        instance.registerEventListener(new SlowListener(), TestEvent2.class);
+        instance.registerEventListener("session", new GenericEventListener() {
+            public void eventTriggered(Object sender, Event event) {
+            }
+        }, TestEvent2.class, new Condition() {
+            public boolean matches(Object sender, Event event, Object conditionalExpression) {
+                return true;
+            }
+        });
+
+        instance.triggerEvent(this, new TestEvent());
+        instance.triggerEvent(this, new TestEvent2(), "expression");
+        doSleep(200);
+
+        EventManagerStatus status = instance.getStatus(1);
+        assertTrue(status.getSubscriberCounts().size() == 2);
+        for (EventManagerStatus.SubscriberCount subscriberCount : status.getSubscriberCounts()) {
+            if (subscriberCount.getEventClassName().equals(TestEvent2.class.getName()))
+                assertTrue(subscriberCount.getUnconditionalSubscribers() == 1 && subscriberCount.getConditionalSubscribers() == 1);
+        }
+        assertTrue(status.getContextSubscriptionCounts().get("session") == 2);
+        assertTrue(status.getInFlightDeliveries().size() == 1);                          //the listener waiting for release
+        assertTrue(status.getInFlightDeliveries().get(0).getEventClassName().equals(TestEvent.class.getName()));
+        assertTrue(status.getInFlightDeliveries().get(0).getAgeNanos() >= TimeUnit.MILLISECONDS.toNanos(100));
+        assertTrue(status.getSlowestListeners().size() == 1);
+        assertTrue(status.getSlowestListeners().get(0).getListenerClassName().equals(SlowListener.class.getName()));
+
+        release.trigger();
+        doSleep(100);
+        assertTrue(instance.getStatus(10).getInFlightDeliveries().isEmpty());
+        instance.shutdown();
+    }
+
+    public void testStatusCountsWrappedListenersUnderTheirOwnClass() {
+        EventManagerInstance instance = new EventManagerInstance();
+        instance.setListenerStatisticsEnabled(true);
+        SlowListener slowListener = new SlowListener();
+        instance.registerWeakEventListener(slowListener, TestEvent.class);
+        instance.registerAnnotatedListeners(new AnnotatedSubscriber());
+
+        instance.triggerEvent(this, new TestEvent());
+        doSleep(200);
+
+        Set<String> listenerClassNames = new HashSet<String>();
+        for (EventManagerStatus.ListenerTiming timing : instance.getStatus(10).getSlowestListeners())
+            listenerClassNames.add(timing.getListenerClassName());
+        assertTrue(listenerClassNames.size() == 2);                                      //no wrapper or subscriber method classes
+        assertTrue(listenerClassNames.contains(SlowListener.class.getName()));
+        assertTrue(listenerClassNames.contains(AnnotatedSubscriber.class.getName()));
+        instance.unregisterEventListener(slowListener, TestEvent.class);
+        instance.shutdown();
+    }
+
+    public void testShutdownGracefully() {
+        EventManagerInstance instance = new EventManagerInstance(Executors.newScheduledThreadPool(1));
+        final TriggerLatch release = new TriggerLatch();
+        instance.registerEventListener(new GenericEventListener() {
+            public void eventTriggered(Object sender, Event event) {
+                release.await(0);                                                   //until interrupted by the shutdown
+            }
+        }, TestEvent2.class);
+        final List<GenericEventListener> undeliveredReceivers = Collections.synchronizedList(new ArrayList<GenericEventListener>());
+        UndeliveredEventHandler handler = new UndeliveredEventHandler() {
+            public void eventUndelivered(Object sender, Event event, Object conditionalExpression, GenericEventListener receiver) {
+                undeliveredReceivers.add(receiver);
+            }
+        };
+
+        for (int i = 0; i < 5; i++)
+            instance.triggerEvent(this, new TestEvent2());
+        instance.triggerFutureEvent(this, new TestEvent2(), 1, TimeUnit.HOURS);
+        instance.triggerPeriodicEvent(this, new TestEvent2(), 1, 1, TimeUnit.HOURS);
+
+        ShutdownReport report = instance.shutdownGracefully(100, TimeUnit.MILLISECONDS, handler);
+        assertFalse(report.isComplete());
+        assertTrue(report.getInterruptedCount() == 1);                                   //the delivery waiting for release
+        assertTrue(report.getUndeliveredCount() == 4);                                   //the other events, matched or not
+        assertTrue(report.getCancelledFutureEventCount() == 1 && report.getCancelledPeriodicEventCount() == 1);
+        assertTrue(undeliveredReceivers.size() == report.getUndeliveredCount() + 1);
+        assertTrue(undeliveredReceivers.indexOf(null) == 0);                                 //the future event, never matched
+        try {
+            instance.triggerEvent(this, new TestEvent2());
+            fail();
+        } catch (RejectedExecutionException e) {
+        }
+
+        instance = new EventManagerInstance(1);
+        final AtomicInteger received = new AtomicInteger();
+        instance.registerEventListener(new GenericEventListener() {
+            public void eventTriggered(Object sender, Event event) {
+                received.incrementAndGet();
+            }
+        }, TestEvent.class);
+        for (int i = 0; i < 1000; i++)
+            instance.triggerEvent(this, new TestEvent());
+
+        report = instance.shutdownGracefully(5, TimeUnit.SECONDS, handler);
+        assertTrue(report.isComplete());
+        assertTrue(report.getCompletedCount() <= 1000 && received.get() == 1000);            //some may have been delivered before
+    }
+
+    public void testShutdownGracefullyReportsEventsHeldByListeners() {
+        EventManagerInstance instance = new EventManagerInstance(Executors.newScheduledThreadPool(1));
+        final AtomicInteger received = new AtomicInteger();
+        List<GenericEventListener> listeners = new ArrayList<GenericEventListener>();
+        for (int i = 0; i < 4; i++) {
+            listeners.add(new GenericEventListener() {
+                public void eventTriggered(Object sender, Event event) {
+                    received.incrementAndGet();
+                }
+            });
+        }
+        instance.registerDebouncedEventListener(listeners.get(0), TestEvent.class, 1, TimeUnit.HOURS);
+        instance.registerThrottledEventListener(listeners.get(1), TestEvent.class, 1, TimeUnit.HOURS);
+        instance.registerSampledEventListener(listeners.get(2), TestEvent.class, 1, TimeUnit.HOURS);
+        instance.registerWindowedEventListener(listeners.get(3), TestEvent.class, EventWindow.tumblingCount(10));
+
+        final List<GenericEventListener> undeliveredReceivers = Collections.synchronizedList(new ArrayList<GenericEventListener>());
+        final List<Event> undeliveredEvents = Collections.synchronizedList(new ArrayList<Event>());
+        for (int i = 0; i < 3; i++)
+            instance.triggerEvent(this, new TestEvent(i));
+        ShutdownReport report = instance.shutdownGracefully(1, TimeUnit.SECONDS, new UndeliveredEventHandler() {
+            public void eventUndelivered(Object sender, Event event, Object conditionalExpression, GenericEventListener receiver) {
+                undeliveredReceivers.add(receiver);
+                undeliveredEvents.add(event);
+            }
+        });
+
+        assertTrue(received.get() == 1);                                                //the first event passing the throttle
+        assertTrue(report.getUndeliveredCount() == 4);                                   //one event held by each listener
+        assertTrue(undeliveredReceivers.containsAll(listeners));
+        for (Event event : undeliveredEvents) {
+            if (event instanceof WindowEvent)
+                assertTrue(((WindowEvent) event).getEventCount() == 3);                     //the window still open
+            else
+                assertTrue(event.getPayload().equals(2));                                   //the most recent event
+        }
+    }
+
+    public void testLazyAndSharedSchedulers() {
+        final List<Thread> deliveringThreads = Collections.synchronizedList(new ArrayList<Thread>());
+        GenericEventListener listener = new GenericEventListener() {
+            public void eventTriggered(Object sender, Event event) {
+                deliveringThreads.add(Thread.currentThread());
+            }
+        };
+        EventManagerInstance previous = new EventManagerInstance();
+        previous.registerEventListener(listener, TestEvent.class);
+        previous.triggerEvent(this, new TestEvent());
+        doSleep(100);
+
+        List<EventManagerInstance> instances = new ArrayList<EventManagerInstance>();
+        for (int i = 0; i < 50; i++)
+            instances.add(new EventManagerInstance());
+        instances.get(49).registerEventListener(listener, TestEvent.class);
+        instances.get(49).triggerEvent(this, new TestEvent());
+        doSleep(100);
+        assertTrue(deliveringThreads.size() == 2 && deliveringThreads.get(1).isDaemon());
+        assertTrue(getSchedulerNumber(deliveringThreads.get(1)) == getSchedulerNumber(deliveringThreads.get(0)) + 1);    //none created by the 49 unused instances
+        deliveringThreads.clear();
+        previous.shutdown();
+
+        EventManagerInstance first = EventManagerInstance.createWithSharedScheduler();
+        EventManagerInstance second = EventManagerInstance.createWithSharedScheduler();
+        first.registerEventListener(listener, TestEvent.class);
+        second.registerEventListener(listener, TestEvent.class);
+        first.triggerFutureEvent(this, new TestEvent(), 50, TimeUnit.MILLISECONDS);
+        first.shutdown();
+        try {
+            first.triggerEvent(this, new TestEvent());
+            fail();
+        } catch (RejectedExecutionException e) {
+        }
+        second.triggerEvent(this, new TestEvent());                                     //the shared scheduler is still running
+        doSleep(100);
+        assertTrue(deliveringThreads.size() == 1);                                      //the future event of the first was cancelled
+        assertTrue(deliveringThreads.get(0).getName().startsWith("EventScheduler-shared-"));
+        second.shutdown();
+
+        for (EventManagerInstance instance : instances)
+            instance.shutdown();
+    }
+
+    public void testIdleSchedulerThreadsAreReclaimed() throws Exception {
+        final List<Thread> deliveringThreads = Collections.synchronizedList(new ArrayList<Thread>());
+        EventManagerInstance instance = new EventManagerInstance();
+        instance.setIdleThreadTimeout(100, TimeUnit.MILLISECONDS);
+        instance.registerEventListener(new GenericEventListener() {
+            public void eventTriggered(Object sender, Event event) {
+                deliveringThreads.add(Thread.currentThread());
+            }
+        }, TestEvent.class);
+
+        for (int i = 0; i < 10; i++)
+            instance.triggerEvent(this, new TestEvent(i));
+        doSleep(100);
+        assertTrue(deliveringThreads.size() == 10);
+
+        for (Thread thread : deliveringThreads) {
+            thread.join(2000);
+            assertFalse(thread.isAlive());                                 //stopped after being idle, without shutting down
+        }
+
+        instance.triggerEvent(this, new TestEvent(10));                  //new threads are started as events arrive again
+        doSleep(100);
+        assertTrue(deliveringThreads.size() == 11);
+        instance.shutdown();
+    }
+
+    public void testSchedulerThreadsFollowOverlappingDeliveries() throws Exception {
+        EventManagerInstance instance = new EventManagerInstance();
+        instance.setIdleThreadTimeout(100, TimeUnit.MILLISECONDS);
+        final Set<Thread> deliveringThreads = Collections.synchronizedSet(new HashSet<Thread>());
+        final CountDownLatch overlapping = new CountDownLatch(3);
+        instance.registerEventListener(new GenericEventListener() {
+            public void eventTriggered(Object sender, Event event) {
+                deliveringThreads.add(Thread.currentThread());
+                if (event.getPayload() != null) {
+                    overlapping.countDown();
+                    try {
+                        overlapping.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }, TestEvent.class);
+
+        for (int i = 0; i < 10; i++)                                     //the first events may overlap while classes are loaded
+            instance.triggerEvent(this, new TestEvent());
+        doSleep(500);                                                    //until the threads started meanwhile have stopped
+        deliveringThreads.clear();
+
+        for (int i = 0; i < 50; i++) {
+            instance.triggerEvent(this, new TestEvent());
+            doSleep(5);
+        }
+        System.out.println(deliveringThreads);
+        assertTrue(deliveringThreads.size() <= 2);                       //only the dispatch of an event and its delivery overlap
+
+        deliveringThreads.clear();
+        for (int i = 0; i < 3; i++)
+            instance.triggerEvent(this, new TestEvent(i));
+        assertTrue(overlapping.await(5, TimeUnit.SECONDS));              //each waits for the others, so they need a thread each
+        instance.shutdown();
+    }
+
+    /**
+     * Returns the number of the scheduler owning a thread, from thread names like EventScheduler-12-3.
+     */
+    private int getSchedulerNumber(Thread thread) {
+        return Integer.parseInt(thread.getName().split("-")[1]);
+    }
+
+    public void testEventDispatchThreadListener() throws Exception {
+        EventManagerInstance instance = new EventManagerInstance(Executors.newScheduledThreadPool(1));
+        final List<Integer> received = new ArrayList<Integer>();
+        final Set<Object> edtRunnables = Collections.synchronizedSet(new HashSet<Object>());
+        instance.registerEventDispatchThreadListener(new GenericEventListener() {
+            public void eventTriggered(Object sender, Event event) {
+                assertTrue(EventQueue.isDispatchThread());
+                edtRunnables.add(EventQueue.getCurrentEvent());
+                synchronized (received) {
+                    received.add((Integer) event.getPayload());
+                }
+            }
+        }, TestEvent.class);
+
+        final TriggerLatch release = new TriggerLatch();
+        EventQueue.invokeLater(new Runnable() {
+            public void run() {
+                release.await(0);                                                   //keeps the event dispatch thread busy while events arrive
+            }
+        });
+        for (int i = 0; i < 100; i++)
+            instance.triggerEvent(this, new TestEvent(i));
+        doSleep(200);
+        release.trigger();
+        EventQueue.invokeAndWait(new Runnable() {
+            public void run() {
+            }
+        });
+
+        assertReceivedInOrder(received, 100);
+        assertTrue(edtRunnables.size() == 1);                                        //one runnable on the event queue for the whole burst
+        instance.shutdown();
+    }
+
+    public void testRateLimits() {
+        EventManagerInstance instance = new EventManagerInstance(Executors.newScheduledThreadPool(1));
+        final AtomicInteger received = new AtomicInteger();
+        instance.registerEventListener(new GenericEventListener() {
+            public void eventTriggered(Object sender, Event event) {
+                received.incrementAndGet();
+            }
+        }, TestEvent.class);
+
+        instance.setSenderRateLimit(1, 5);
+        int noisyTriggered = 0;
+        for (int i = 0; i < 100; i++) {
+            if (instance.tryTriggerEvent("noisy", new TestEvent(), null))
+                noisyTriggered++;
+        }
+        assertTrue(noisyTriggered == 5);                                               //the burst of the noisy sender
+        for (int i = 0; i < 5; i++)
+            assertTrue(instance.tryTriggerEvent(this, new TestEvent(), null));        //another sender has a bucket of its own
+        instance.triggerEvent("noisy", new TestEvent());                                //dropped
+
+        instance.setSenderRateLimit(0, 0);
+        instance.setEventClassRateLimit(TestEvent.class, 1, 2);
+        for (int i = 0; i < 5; i++)
+            instance.triggerEvent(i, new TestEvent());                                    //all senders together
+        doSleep(100);
+        assertTrue(received.get() == 12);
+
+        assertTrue(instance.getThrottledEventCount() == 99);
+        EventManagerStatus status = instance.getStatus(0);
+        assertTrue(status.getThrottledCountsBySenderClass().get(String.class.getName()) == 96);
+        assertTrue(status.getThrottledCountsBySenderClass().get(Integer.class.getName()) == 3);
+        assertTrue(status.getThrottledCountsByEventClass().get(TestEvent.class.getName()) == 99);
+        instance.shutdown();
+    }
+
+    public void testRateLimitsOfThrottledAndScheduledEvents() {
+        EventManagerInstance instance = new EventManagerInstance(Executors.newScheduledThreadPool(1));
+        final AtomicInteger received = new AtomicInteger();
+        instance.registerEventListener(new GenericEventListener() {
+            public void eventTriggered(Object sender, Event event) {
+                received.incrementAndGet();
+            }
+        }, TestEvent.class);
+
+        instance.setSenderRateLimit(0.001, 2);
+        instance.setEventClassRateLimit(TestEvent.class, 0.001, 1);
+        assertTrue(instance.tryTriggerEvent(this, new TestEvent(), null));
+        assertFalse(instance.tryTriggerEvent(this, new TestEvent(), null));             //dropped by the event class
+        instance.setEventClassRateLimit(TestEvent.class, 0, 0);
+        assertTrue(instance.tryTriggerEvent(this, new TestEvent(), null));              //the dropped event took no token of the sender
+        assertFalse(instance.tryTriggerEvent(this, new TestEvent(), null));
+
+        instance.setSenderRateLimit(0, 0);
+        instance.setEventClassRateLimit(TestEvent.class, 0.001, 1);
+        instance.triggerPeriodicEvent(this, new TestEvent(), 0, 10, TimeUnit.MILLISECONDS);
+        doSleep(200);
+        assertTrue(received.get() == 3);                                                //one periodic event within the burst
+        assertTrue(instance.getThrottledEventCount() >= 10);
+        instance.shutdown();
+    }
+
+    public void testChangingSenderRateLimitsWhileTriggering() throws Exception {
+        final EventManagerInstance instance = new EventManagerInstance(Executors.newScheduledThreadPool(1));
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread changingLimits = new Thread() {
+            public void run() {
+                while (!done.get()) {
+                    instance.setSenderRateLimit(1000, 10);
+                    instance.setSenderRateLimit(0, 0);
+                }
+            }
+        };
+        changingLimits.start();
+        try {
+            long deadline = System.currentTimeMillis() + 200;
+            for (int i = 0; System.currentTimeMillis() < deadline; i++)
+                instance.tryTriggerEvent(i % 10, new TestEvent(), null);        //never a bucket with the rate of one limit and the burst of another
+        } finally {
+            done.set(true);
+            changingLimits.join();
+            instance.shutdown();
+        }
+    }
+
+    public void testDispatcherTriggeringIntoItsFullRing() {
+        EventManagerInstance instance = new EventManagerInstance(1, 2);
+        final Map<String, String> france = new HashMap<String, String>();
+        france.put("region", "FR");
+        final EventManagerInstance eventManager = instance;
+        final AtomicInteger firstCalls = new AtomicInteger();
+        final AtomicInteger secondCalls = new AtomicInteger();
+        final AtomicInteger usCalls = new AtomicInteger();
+        final List<Integer> received = new ArrayList<Integer>();
+
+        instance.registerEventListener(new GenericEventListener() {
+            public void eventTriggered(Object sender, Event event) {
+                firstCalls.incrementAndGet();
+                for (int i = 0; i < 4; i++)
+                    eventManager.triggerEvent(this, new TestEvent2(i), france);           //more than the ring holds
+            }
+        }, TestEvent.class, DeclarativeCondition.fieldEquals("region", "EU"));
+        instance.registerEventListener(new GenericEventListener() {
+            public void eventTriggered(Object sender, Event event) {
+                secondCalls.incrementAndGet();
+            }
+        }, TestEvent.class, DeclarativeCondition.fieldEquals("region", "EU"));
+        instance.registerEventListener(new GenericEventListener() {
+            public void eventTriggered(Object sender, Event event) {
+                synchronized (received) {
+                    received.add((Integer) event.getPayload());
+                }
+            }
+        }, TestEvent2.class);
+        instance.registerEventListener(new GenericEventListener() {
+            public void eventTriggered(Object sender, Event event) {
+                usCalls.incrementAndGet();
+            }
+        }, TestEvent2.class, DeclarativeCondition.fieldEquals("region", "US"));
+
+        Map<String, String> europe = new HashMap<String, String>();
+        europe.put("region", "EU");
+        instance.triggerEvent(this, new TestEvent(), europe);
+        doSleep(200);
+
+        assertTrue(firstCalls.get() == 1 && secondCalls.get() == 1);                    //conditions of the outer event unaffected
+        assertTrue(usCalls.get() == 0);
+        assertReceivedInOrder(received, 4);                                              //overflowed events delivered, in order
+        instance.shutdown();
+    }
+
+    private void assertReceivedInOrder(List<Integer> received, int count) {
+        synchronized (received) {
+            assertTrue(received.size() == count);             //every event delivered exactly once
+            for (int i = 0; i < count; i++)
+                assertTrue(received.get(i) == i);            //in the order triggered
+        }
+    }
+
+    public void testPerformance() {
+        EventManagerInstance instance = new EventManagerInstance();
+
+        instance.unregisterAllEventSubscriptions();
+
+        class State {
+
+            public int noOfTriggeredEvent = 0;
+        }
+
+        final State state = new State();
+
+        instance.registerEventListener(new GenericEventListener() {
+
+            public void eventTriggered(Object sender, Event event) {
+                state.noOfTriggeredEvent += 1;
+            }
+        }, EventObject.class);
+
+
+        System.out.println("Entering pretest..");
+        long preEvents = 1000;
+        for (int j = 0; j < preEvents; j++) {
+            instance.triggerEvent(this, new EventObject());
+        }
+
+        while (state.noOfTriggeredEvent < preEvents) {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                e.printStackTrace();  //To change body of catch statement use File | Settings | File Templates.
+            }
+        }
+
+        state.noOfTriggeredEvent = 0;
+        System.out.println("Starting test..");
+
+        long seconds = 2;
+        long start = System.currentTimeMillis();
+
+        int i = 0;
+        while (System.currentTimeMillis() < start + (seconds * 1000)) {
+            i += 1;
+            instance.triggerEvent(this, new EventObject());
+        }
+
+        System.out.println("Received events per second = " + state.noOfTriggeredEvent / seconds + ", sent events per second = " + i / seconds);
+    }
+
+    private void triggerDelayed(final EventManagerInstance instance, final Event event, final Object condition) {
+        new Thread(new Runnable() {
+
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                    if (condition != null) {
+                        instance.triggerEvent(this, event, condition);
+                    } else {
+                        instance.triggerEvent(this, event);
+                    }
+                } catch (InterruptedException e) {
+                }
+            }
+        }).start();
+    }
+
+    private void doSleep(long timeout) {
+        try {
+            Thread.sleep(timeout);
+        } catch (InterruptedException e) {
+        }
+    }
+
+    class TestEvent extends EventObject {
+
+        public TestEvent() {
         }
 
         public TestEvent(Object source) {
@@ -625,6 +2210,96 @@ public class EventingTests extends TestCase {
         }
     }
 
+    static class AnnotatedSubscriberBase {
+        final AtomicInteger inherited = new AtomicInteger();
+
+        @Subscribe
+        void testEvent2(TestEvent2 event) {
+            inherited.incrementAndGet();
+        }
+    }
+
+    static class AnnotatedSubscriber extends AnnotatedSubscriberBase {
+        final AtomicInteger withSender = new AtomicInteger();
+        final AtomicInteger withoutSender = new AtomicInteger();
+
+        @Subscribe
+        public void testEvent(Object sender, TestEvent event) {
+            if (sender instanceof EventingTests)
+                withSender.incrementAndGet();
+        }
+
+        @Subscribe
+        void testEvent(TestEvent event) {                                    //an overload, subscribed along with the one above
+            withoutSender.incrementAndGet();
+        }
+    }
+
+    public static class Order {
+        private final String region;
+        private final String country;
+        private final int amount;
+        int regionReads;
+
+        Order(String region, String country, int amount) {
+            this.region = region;
+            this.country = country;
+            this.amount = amount;
+        }
+
+        public String getRegion() {
+            regionReads++;
+            return region;
+        }
+
+        public String getCountry() {
+            return country;
+        }
+
+        public int getAmount() {
+            return amount;
+        }
+    }
+
+    class PriceRequest extends CorrelatedEventObject {
+
+        public PriceRequest(int quantity) {
+            super(quantity);
+        }
+    }
+
+    class PriceReply extends CorrelatedEventObject {
+
+        public PriceReply(int price, Object correlationId) {
+            super(price, correlationId);
+        }
+    }
+
+    class TestReply extends CorrelatedEventObject {
+
+        public TestReply(Object correlationId) {
+            super(null, correlationId);
+        }
+    }
+
+    static class SlowListener implements GenericEventListener {
+
+        public void eventTriggered(Object sender, Event event) {
+            try {
+                Thread.sleep(30);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    class LatencyEvent extends LongEvent {
+
+        public LatencyEvent(long nanos) {
+            super(nanos);
+        }
+    }
+
     class TestEvent2 extends EventObject {
 
         public TestEvent2() {
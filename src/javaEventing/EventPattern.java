@@ -0,0 +1,139 @@
+/*
+   Copyright 2011 Espen Skjervold
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package javaEventing;
+
+import javaEventing.interfaces.Event;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Describes a pattern of events for EventManagerInstance.registerPatternListener(...). Two kinds of patterns are
+ * supported: sequences, where the events must arrive in the given order, and thresholds, where any n of the given
+ * event types must arrive in any order. Both may be bounded in time, counted from the first event of a match.
+ * The event types are taken as Class<?> rather than Class<? extends Event>, since a generic varargs parameter makes every
+ * caller compile with an unchecked warning; they are checked to be Event types when the pattern is created.
+ */
+public class EventPattern {
+
+    private final boolean sequence;
+    private final List<Class<? extends Event>> eventClasses;
+    private final int threshold;
+    private final long withinNanos;
+    private final Map<Class<? extends Event>, Integer> indexes = new HashMap<Class<? extends Event>, Integer>();
+
+    private EventPattern(boolean sequence, Class<?>[] eventClasses, int threshold, long withinNanos) {
+        if (eventClasses.length == 0)
+            throw new IllegalArgumentException("A pattern needs at least one event type");
+        if (threshold < 1 || threshold > eventClasses.length)
+            throw new IllegalArgumentException("Threshold must be between 1 and the number of event types");
+
+        this.sequence = sequence;
+        this.eventClasses = new ArrayList<Class<? extends Event>>(eventClasses.length);
+        this.threshold = threshold;
+        this.withinNanos = withinNanos;
+
+        for (Class<?> eventClass : eventClasses) {
+            if (eventClass == null || !Event.class.isAssignableFrom(eventClass))
+                throw new IllegalArgumentException(eventClass + " is not an Event type");
+            Class<? extends Event> checked = eventClass.asSubclass(Event.class);
+            if (!indexes.containsKey(checked))
+                indexes.put(checked, this.eventClasses.size());
+            this.eventClasses.add(checked);
+        }
+        if (!sequence && indexes.size() != eventClasses.length)
+            throw new IllegalArgumentException("The event types of a threshold pattern must be distinct");
+    }
+
+    /**
+     * Matches when the given events are triggered in this order. Events of other types in between are ignored.
+     */
+    public static EventPattern sequence(Class<?>... eventClasses) {
+        return new EventPattern(true, eventClasses, eventClasses.length, 0);
+    }
+
+    /**
+     * Matches when the given events are triggered in this order, all within the given time from the first one.
+     */
+    public static EventPattern sequenceWithin(long within, TimeUnit timeUnit, Class<?>... eventClasses) {
+        return new EventPattern(true, eventClasses, eventClasses.length, timeUnit.toNanos(within));
+    }
+
+    /**
+     * Matches when an event of type first is followed by an event of type then within the given time.
+     */
+    public static EventPattern followedBy(Class<? extends Event> first, Class<? extends Event> then, long within, TimeUnit timeUnit) {
+        return new EventPattern(true, new Class<?>[] {first, then}, 2, timeUnit.toNanos(within));
+    }
+
+    /**
+     * Matches when events of n of the given types have been triggered, in any order.
+     */
+    public static EventPattern nOf(int n, Class<?>... eventClasses) {
+        return new EventPattern(false, eventClasses, n, 0);
+    }
+
+    /**
+     * Matches when events of n of the given types have been triggered, in any order, within the given time from the first one.
+     */
+    public static EventPattern nOfWithin(int n, long within, TimeUnit timeUnit, Class<?>... eventClasses) {
+        return new EventPattern(false, eventClasses, n, timeUnit.toNanos(within));
+    }
+
+    public boolean isSequence() {
+        return sequence;
+    }
+
+    public int getLength() {
+        return eventClasses.size();
+    }
+
+    public Class<? extends Event> getEventClass(int index) {
+        return eventClasses.get(index);
+    }
+
+    /**
+     * Returns the position of the first occurrence of an event type in the pattern, or -1 if it is not part of it.
+     */
+    public int indexOf(Class<? extends Event> eventClass) {
+        Integer index = indexes.get(eventClass);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Returns the distinct event types of the pattern.
+     */
+    public Iterable<Class<? extends Event>> getEventClasses() {
+        return indexes.keySet();
+    }
+
+    /**
+     * Returns the number of event types that must be seen for a threshold pattern to match.
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Returns the time bound of the pattern in nanoseconds, or zero if the pattern is not bounded in time.
+     */
+    public long getWithinNanos() {
+        return withinNanos;
+    }
+}
@@ -0,0 +1,237 @@
+/*
+   Copyright 2011 Espen Skjervold
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package javaEventing;
+
+import javaEventing.interfaces.Condition;
+import javaEventing.interfaces.Event;
+import javaEventing.interfaces.EventSubscriber;
+import javaEventing.interfaces.FlowSubscription;
+import javaEventing.interfaces.GenericEventListener;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Exposes a type of event as a publisher with demand signalling. Every subscriber gets a bounded buffer of its own, and
+ * events are only passed on as far as the subscriber has requested them. When a subscriber falls more than bufferSize
+ * events behind, its oldest buffered events are dropped, so a slow subscriber never makes the event manager buffer
+ * without bounds. Create instances with EventManagerInstance.createPublisher(...).
+ */
+public class EventPublisher {
+
+    private final EventManagerInstance eventManager;
+    private final Class<? extends Event> eventClass;
+    private final Condition condition;
+    private final int bufferSize;
+    private final List<DemandSubscription> subscriptions = new ArrayList<DemandSubscription>();
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private boolean completed;
+
+    EventPublisher(EventManagerInstance eventManager, Class<? extends Event> eventClass, Condition condition, int bufferSize) {
+        if (bufferSize <= 0)
+            throw new IllegalArgumentException("bufferSize must be positive");
+        this.eventManager = eventManager;
+        this.eventClass = eventClass;
+        this.condition = condition;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Subscribes to the events of this publisher. The subscriber's onSubscribe is called before any other signal, and no
+     * events are delivered until it requests them.
+     */
+    public void subscribe(EventSubscriber subscriber) {
+        DemandSubscription subscription = new DemandSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+
+        synchronized (this) {
+            if (completed) {
+                subscription.complete();
+                return;
+            }
+            if (subscription.isTerminated())
+                return;                                  // cancelled or failed by onSubscribe
+            subscriptions.add(subscription);
+        }
+
+        if (condition != null)
+            eventManager.registerEventListener(subscription, eventClass, condition);
+        else
+            eventManager.registerEventListener(subscription, eventClass);
+        if (subscription.isTerminated())
+            subscription.unregister();                   // cancelled, failed or completed before it was registered
+    }
+
+    /**
+     * Unregisters all subscribers from the event manager, and calls their onComplete once their buffered events have
+     * been delivered.
+     */
+    public void complete() {
+        List<DemandSubscription> completedSubscriptions;
+        synchronized (this) {
+            completed = true;
+            completedSubscriptions = new ArrayList<DemandSubscription>(subscriptions);
+            subscriptions.clear();
+        }
+        for (DemandSubscription subscription : completedSubscriptions) {
+            eventManager.unregisterEventListener(subscription, eventClass);
+            subscription.complete();
+        }
+    }
+
+    /**
+     * Returns the number of events dropped because a subscriber's buffer was full.
+     */
+    public long getDroppedEventCount() {
+        return droppedEvents.get();
+    }
+
+    public Class<? extends Event> getEventClass() {
+        return eventClass;
+    }
+
+    private synchronized void removeSubscription(DemandSubscription subscription) {
+        subscriptions.remove(subscription);
+    }
+
+    private class DemandSubscription implements FlowSubscription, GenericEventListener {
+
+        private final EventSubscriber subscriber;
+        private final ArrayDeque<Event> buffer = new ArrayDeque<Event>();
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger pendingDrains = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile boolean done;
+        private volatile Throwable error;
+
+        DemandSubscription(EventSubscriber subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        public void eventTriggered(Object sender, Event event) {
+            if (cancelled || done)
+                return;
+
+            synchronized (buffer) {
+                if (buffer.size() == bufferSize) {
+                    buffer.pollFirst();
+                    droppedEvents.incrementAndGet();
+                }
+                buffer.addLast(event);
+            }
+            drain();
+        }
+
+        public void request(long n) {
+            if (n <= 0) {
+                error = new IllegalArgumentException("Non-positive request: " + n);
+                done = true;
+                unregister();
+                drain();
+                return;
+            }
+
+            for (;;) {
+                long current = requested.get();
+                long next = current + n;
+                if (next < 0)
+                    next = Long.MAX_VALUE;       // unbounded demand
+                if (requested.compareAndSet(current, next))
+                    break;
+            }
+            drain();
+        }
+
+        public void cancel() {
+            if (cancelled)
+                return;
+            cancelled = true;
+            unregister();
+        }
+
+        boolean isTerminated() {
+            return cancelled || done;
+        }
+
+        private void unregister() {
+            removeSubscription(this);
+            eventManager.unregisterEventListener(this, eventClass);
+            synchronized (buffer) {
+                buffer.clear();
+            }
+        }
+
+        void complete() {
+            done = true;
+            drain();
+        }
+
+        /**
+         * Passes buffered events on to the subscriber as far as demand allows. Only one thread drains at a time, and a
+         * thread calling drain while another is draining just makes that thread do one more pass, so onNext is never
+         * called concurrently or recursively.
+         */
+        private void drain() {
+            if (pendingDrains.getAndIncrement() != 0)
+                return;
+
+            int missed = 1;
+            for (;;) {
+                long demand = requested.get();
+                long emitted = 0;
+
+                while (emitted != demand && !cancelled && error == null) {
+                    Event event;
+                    synchronized (buffer) {
+                        event = buffer.pollFirst();
+                    }
+                    if (event == null)
+                        break;
+                    subscriber.onNext(event);
+                    emitted++;
+                }
+
+                if (cancelled)
+                    return;
+
+                if (done) {
+                    boolean empty;
+                    synchronized (buffer) {
+                        empty = buffer.isEmpty();
+                    }
+                    if (error != null || empty) {
+                        cancelled = true;
+                        if (error != null)
+                            subscriber.onError(error);
+                        else
+                            subscriber.onComplete();
+                        return;
+                    }
+                }
+
+                if (emitted != 0 && demand != Long.MAX_VALUE)
+                    requested.addAndGet(-emitted);
+
+                missed = pendingDrains.addAndGet(-missed);
+                if (missed == 0)
+                    return;
+            }
+        }
+    }
+}
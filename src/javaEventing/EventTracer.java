@@ -0,0 +1,214 @@
+/*
+   Copyright 2011 Espen Skjervold
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package javaEventing;
+
+import javaEventing.interfaces.Event;
+import javaEventing.interfaces.GenericEventListener;
+import javaEventing.internals.DelegatingEventListener;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the life cycle of a sample of the triggered events, for finding out where the time goes between triggering
+ * an event and its listeners being done: waiting in the queue, matching subscribers, waiting for a thread to run the
+ * listener, or the listener itself. Timestamps are taken with System.nanoTime().
+ * Install with EventManagerInstance.setEventTracer(...). Only the most recent sampled events are kept, and the recorded
+ * traces can be written in the Chrome trace event format, readable by chrome://tracing, Perfetto and similar timeline tools.
+ */
+public class EventTracer {
+
+    private final int sampleInterval;
+    private final EventTrace[] traces;
+    private final AtomicLong triggerCount = new AtomicLong();
+    private final long origin = System.nanoTime();
+    private int nextTrace;
+    private long traceCount;
+
+    /**
+     * @param sampleInterval Every sampleInterval-th triggered event is traced. 1 traces all events.
+     * @param capacity The number of most recent traces kept.
+     */
+    public EventTracer(int sampleInterval, int capacity) {
+        if (sampleInterval <= 0 || capacity <= 0)
+            throw new IllegalArgumentException("sampleInterval and capacity must be positive");
+        this.sampleInterval = sampleInterval;
+        this.traces = new EventTrace[capacity];
+    }
+
+    /**
+     * Called when an event is triggered. Returns the trace to fill in as the event is delivered, or null if the event is not sampled.
+     */
+    EventTrace sample(Event event) {
+        if (triggerCount.incrementAndGet() % sampleInterval != 0)
+            return null;
+
+        EventTrace trace = new EventTrace(event.getClass().getName(), System.nanoTime(), Thread.currentThread().getId());
+        synchronized (this) {
+            trace.id = ++traceCount;
+            traces[nextTrace] = trace;
+            nextTrace = (nextTrace + 1) % traces.length;
+        }
+        return trace;
+    }
+
+    /**
+     * Returns the number of events traced so far, including those no longer kept.
+     */
+    public synchronized long getTraceCount() {
+        return traceCount;
+    }
+
+    /**
+     * Drops the recorded traces.
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < traces.length; i++)
+            traces[i] = null;
+        nextTrace = 0;
+    }
+
+    /**
+     * Writes the recorded traces to a file as a JSON array of Chrome trace events. Each traced event appears as a "queued"
+     * span on the triggering thread and a "match" span on the dispatching thread, and each listener it was delivered to as
+     * a "waiting for thread" span and a span named after the listener class on the delivering thread.
+     * Listeners still running are left out.
+     */
+    public void writeChromeTrace(File file) throws IOException {
+        List<EventTrace> recorded = new ArrayList<EventTrace>();
+        synchronized (this) {
+            for (int i = 0; i < traces.length; i++) {
+                EventTrace trace = traces[(nextTrace + i) % traces.length];
+                if (trace != null)
+                    recorded.add(trace);
+            }
+        }
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            writer.write("[");
+            boolean first = true;
+            for (EventTrace trace : recorded)
+                first = trace.write(writer, first);
+            writer.write("\n]\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * The life cycle of one sampled event.
+     */
+    class EventTrace {
+        private final String eventClassName;
+        private final long enqueued;
+        private final long triggerThreadId;
+        private long id;
+        private long dequeued;
+        private long dispatchThreadId;
+        private final List<Delivery> deliveries = new ArrayList<Delivery>();
+
+        EventTrace(String eventClassName, long enqueued, long triggerThreadId) {
+            this.eventClassName = eventClassName;
+            this.enqueued = enqueued;
+            this.triggerThreadId = triggerThreadId;
+        }
+
+        /**
+         * Called when the event is taken from the queue for matching against the subscribers.
+         */
+        synchronized void dequeued() {
+            dequeued = System.nanoTime();
+            dispatchThreadId = Thread.currentThread().getId();
+        }
+
+        /**
+         * Called when a listener's condition has matched. Returns the delivery to mark the start and end of the listener on,
+         * named after the application's listener class rather than that of a wrapper around it.
+         */
+        synchronized Delivery matched(GenericEventListener receiver) {
+            Delivery delivery = new Delivery(DelegatingEventListener.getListenerClass(receiver).getName(), System.nanoTime());
+            deliveries.add(delivery);
+            return delivery;
+        }
+
+        private synchronized boolean write(Writer writer, boolean first) throws IOException {
+            if (dequeued == 0)
+                return first;
+
+            long matchEnd = dequeued;
+            for (Delivery delivery : deliveries)
+                matchEnd = Math.max(matchEnd, delivery.matched);
+
+            writeSpan(writer, first, "queued", enqueued, dequeued, triggerThreadId);
+            writeSpan(writer, false, "match", dequeued, matchEnd, dispatchThreadId);
+            for (Delivery delivery : deliveries) {
+                if (delivery.ended == 0)
+                    continue;
+                writeSpan(writer, false, "waiting for thread", delivery.matched, delivery.started, delivery.threadId);
+                writeSpan(writer, false, delivery.listenerClassName, delivery.started, delivery.ended, delivery.threadId);
+            }
+            return false;
+        }
+
+        private void writeSpan(Writer writer, boolean first, String name, long start, long end, long threadId) throws IOException {
+            writer.write(first ? "\n" : ",\n");
+            writer.write("{\"name\":\"" + escape(name) + "\",\"cat\":\"" + escape(eventClassName) + "\",\"ph\":\"X\",\"pid\":1,\"tid\":" + threadId
+                    + ",\"ts\":" + microseconds(start - origin) + ",\"dur\":" + microseconds(end - start)
+                    + ",\"args\":{\"trace\":" + id + ",\"event\":\"" + escape(eventClassName) + "\"}}");
+        }
+    }
+
+    /**
+     * The delivery of a sampled event to one listener.
+     */
+    static class Delivery {
+        private final String listenerClassName;
+        private final long matched;
+        private volatile long started;
+        private volatile long ended;
+        private volatile long threadId;
+
+        Delivery(String listenerClassName, long matched) {
+            this.listenerClassName = listenerClassName;
+            this.matched = matched;
+        }
+
+        void started() {
+            threadId = Thread.currentThread().getId();
+            started = System.nanoTime();
+        }
+
+        void ended() {
+            ended = System.nanoTime();
+        }
+    }
+
+    private static String microseconds(long nanos) {
+        return nanos / 1000 + "." + String.format("%03d", nanos % 1000);
+    }
+
+    private static String escape(String text) {
+        return text.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
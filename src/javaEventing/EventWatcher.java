@@ -18,18 +18,18 @@ package javaEventing;
 import javaEventing.interfaces.Condition;
 import javaEventing.interfaces.Event;
 import javaEventing.interfaces.GenericEventListener;
+import javaEventing.internals.TriggerLatch;
 
 /**
  * Helper-class for subscribing to events.
  */
 public class EventWatcher {
 
-    private boolean triggered = false;
-    private final Object lockObject = new Object();
+    private final TriggerLatch latch = new TriggerLatch();
     private Class<? extends Event> eventClass;
     private Condition condition;
     private GenericEventListener eventListener;
-    private Object eventPayload;
+    private volatile Object eventPayload;
     private EventManagerInstance eventManager;
 
     /**
@@ -60,27 +60,21 @@ public class EventWatcher {
     private synchronized void registerEventListener(Class<? extends Event> event, Condition condition) {
         createEventListener();
 
-        if (condition != null) {
-            eventManager.registerEventListener(eventListener, eventClass, condition);
-        } else {
-            eventManager.registerEventListener(eventListener, eventClass);
-        }
+        eventManager.registerWeakEventListener(null, eventListener, eventClass, condition);     // weak, so a forgotten watcher can still be collected
     }
 
     private synchronized void createEventListener() {
         eventListener = new GenericEventListener() {
-            public synchronized void eventTriggered(Object sender, Event event) {
-                synchronized (lockObject) {
-                    eventPayload = event.getPayload();
-                    triggered = true;
-                    lockObject.notifyAll();
-                }
+            public void eventTriggered(Object sender, Event event) {
+                eventPayload = event.getPayload();
+                latch.trigger();
             }
         };
     }
 
     /**
-     * Unregisters the event watchers internal event listener. Remember to call this method when finished with an event watcher object, in order to allow the garbage collector to destroy it.
+     * Unregisters the event watchers internal event listener. The listener is registered weakly, so a forgotten watcher is still garbage collected,
+     * but calling this method when finished with an event watcher object releases its subscription right away.
      */
     public synchronized void unregisterEvent() {
         eventManager.unregisterEventListener(eventListener, eventClass);
@@ -90,12 +84,7 @@ public class EventWatcher {
      *  Returns true if the event has allready been triggered and the event watcher has been notified.
      */
     public boolean hasBeenTriggered() {
-        if (triggered) {
-            triggered = false; //reset
-            return true;
-        } else {
-            return false;
-        }
+        return latch.tryConsume();
     }
 
     /**
@@ -113,26 +102,25 @@ public class EventWatcher {
      *  @param timeout The number of milliseconds before unblocking the call, regardless of whether or not the event is triggered. If zero, it will never time out.
      */
     public boolean waitUntilTriggered(long timeout) {
-
-        if (hasBeenTriggered()) {
-            return true;         //return immediately if allready triggered
-        }
         try {
-            synchronized (lockObject) {
-                lockObject.wait(timeout);
-            }
-        } catch (InterruptedException e) {
+            return latch.await(timeout);        //returns immediately if allready triggered
+        } finally {
+            keepReachable();
         }
+    }
 
-
-        return hasBeenTriggered();
+    /**
+     * Called once a wait is over, so the watcher, and with it the weakly registered listener, cannot be garbage collected
+     * while a thread waits, even if the caller keeps no reference to the watcher.
+     */
+    private synchronized void keepReachable() {
     }
 
     /**
      *  Allows re-using an event watcher object after being triggered and notified.
      */
     public void reEnableEventWatcher() {
-        triggered = false;
+        latch.reset();
         registerEventListener(eventClass, condition);
     }
 
@@ -0,0 +1,85 @@
+/*
+   Copyright 2011 Espen Skjervold
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package javaEventing;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Describes how events are grouped by a windowed event listener. A window is either count based or time based,
+ * and either tumbling (each event belongs to exactly one window) or sliding (a new window is emitted every slide,
+ * covering the most recent size events or time).
+ */
+public class EventWindow {
+
+    private final boolean timeBased;
+    private final long size;
+    private final long slide;
+
+    private EventWindow(boolean timeBased, long size, long slide) {
+        if (size <= 0 || slide <= 0)
+            throw new IllegalArgumentException("Window size and slide must be positive");
+        this.timeBased = timeBased;
+        this.size = size;
+        this.slide = slide;
+    }
+
+    /**
+     * A window emitted for every size events.
+     */
+    public static EventWindow tumblingCount(int size) {
+        return new EventWindow(false, size, size);
+    }
+
+    /**
+     * A window covering the last size events, emitted for every slide events.
+     */
+    public static EventWindow slidingCount(int size, int slide) {
+        return new EventWindow(false, size, slide);
+    }
+
+    /**
+     * A window covering all events triggered during each consecutive period of the given duration.
+     */
+    public static EventWindow tumblingTime(long duration, TimeUnit timeUnit) {
+        long nanos = timeUnit.toNanos(duration);
+        return new EventWindow(true, nanos, nanos);
+    }
+
+    /**
+     * A window covering the events triggered during the last duration, emitted once per slide.
+     */
+    public static EventWindow slidingTime(long duration, long slide, TimeUnit timeUnit) {
+        return new EventWindow(true, timeUnit.toNanos(duration), timeUnit.toNanos(slide));
+    }
+
+    public boolean isTimeBased() {
+        return timeBased;
+    }
+
+    /**
+     * Returns the number of events in the window, or its duration in nanoseconds for time based windows.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the number of events between two windows, or the time between them in nanoseconds for time based windows.
+     */
+    public long getSlide() {
+        return slide;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+   Copyright 2011 Espen Skjervold
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package javaEventing;
+
+import javaEventing.interfaces.Event;
+import javaEventing.interfaces.GenericEventListener;
+import javaEventing.internals.DelegatingEventListener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the time spent in each listener class, and which listener every thread is running, for EventManagerStatus.
+ * Wrapped listeners and subscriber methods are counted under the class of the listener or target they call.
+ * Each thread publishes its running listener in a slot of its own, so recording an invocation takes no lock.
+ */
+class ListenerStatistics {
+
+    private final ConcurrentMap<Class<?>, Timing> timings = new ConcurrentHashMap<Class<?>, Timing>();
+    private final Queue<Slot> slots = new ConcurrentLinkedQueue<Slot>();
+    private final ThreadLocal<Slot> threadSlot = new ThreadLocal<Slot>() {
+        protected Slot initialValue() {
+            Slot slot = new Slot(Thread.currentThread());
+            slots.add(slot);
+            return slot;
+        }
+    };
+
+    /**
+     * Called before a listener is invoked. Returns the start time to pass to ended(...).
+     */
+    long started(GenericEventListener receiver, Event event) {
+        Slot slot = threadSlot.get();
+        slot.listenerClass = DelegatingEventListener.getListenerClass(receiver);
+        slot.eventClass = event.getClass();
+        long start = System.nanoTime();
+        slot.started = start;
+        return start;
+    }
+
+    void ended(GenericEventListener receiver, long start) {
+        long duration = System.nanoTime() - start;
+        threadSlot.get().started = 0;
+
+        Class<?> listenerClass = DelegatingEventListener.getListenerClass(receiver);
+        Timing timing = timings.get(listenerClass);
+        if (timing == null) {
+            timing = new Timing();
+            Timing existing = timings.putIfAbsent(listenerClass, timing);
+            if (existing != null)
+                timing = existing;
+        }
+        timing.record(duration);
+    }
+
+    List<EventManagerStatus.InFlightDelivery> getInFlightDeliveries() {
+        long now = System.nanoTime();
+        List<EventManagerStatus.InFlightDelivery> inFlight = new ArrayList<EventManagerStatus.InFlightDelivery>();
+        for (Iterator<Slot> iterator = slots.iterator(); iterator.hasNext();) {
+            Slot slot = iterator.next();
+            if (!slot.thread.isAlive()) {
+                iterator.remove();
+                continue;
+            }
+            long started = slot.started;
+            Class<?> listenerClass = slot.listenerClass;
+            Class<?> eventClass = slot.eventClass;
+            if (started != 0)
+                inFlight.add(new EventManagerStatus.InFlightDelivery(listenerClass.getName(), eventClass.getName(), slot.thread.getName(), now - started));
+        }
+
+        Collections.sort(inFlight, new Comparator<EventManagerStatus.InFlightDelivery>() {
+            public int compare(EventManagerStatus.InFlightDelivery a, EventManagerStatus.InFlightDelivery b) {
+                return a.getAgeNanos() > b.getAgeNanos() ? -1 : a.getAgeNanos() < b.getAgeNanos() ? 1 : 0;
+            }
+        });
+        return inFlight;
+    }
+
+    List<EventManagerStatus.ListenerTiming> getSlowestListeners(int maxCount) {
+        List<EventManagerStatus.ListenerTiming> slowest = new ArrayList<EventManagerStatus.ListenerTiming>();
+        for (Map.Entry<Class<?>, Timing> entry : timings.entrySet()) {
+            Timing timing = entry.getValue();
+            slowest.add(new EventManagerStatus.ListenerTiming(entry.getKey().getName(), timing.count.get(), timing.total.get(), timing.max.get()));
+        }
+
+        Collections.sort(slowest, new Comparator<EventManagerStatus.ListenerTiming>() {
+            public int compare(EventManagerStatus.ListenerTiming a, EventManagerStatus.ListenerTiming b) {
+                return a.getAverageNanos() > b.getAverageNanos() ? -1 : a.getAverageNanos() < b.getAverageNanos() ? 1 : 0;
+            }
+        });
+        return slowest.size() > maxCount ? new ArrayList<EventManagerStatus.ListenerTiming>(slowest.subList(0, maxCount)) : slowest;
+    }
+
+    private static class Timing {
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong total = new AtomicLong();
+        final AtomicLong max = new AtomicLong();
+
+        void record(long duration) {
+            count.incrementAndGet();
+            total.addAndGet(duration);
+            long currentMax = max.get();
+            while (duration > currentMax && !max.compareAndSet(currentMax, duration))
+                currentMax = max.get();
+        }
+    }
+
+    /**
+     * The listener a thread is running. started is written last when a listener starts, and is zero while the thread is idle.
+     */
+    private static class Slot {
+        final Thread thread;
+        volatile Class<?> listenerClass;
+        volatile Class<?> eventClass;
+        volatile long started;
+
+        Slot(Thread thread) {
+            this.thread = thread;
+        }
+    }
+}
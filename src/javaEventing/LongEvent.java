@@ -0,0 +1,42 @@
+/*
+   Copyright 2011 Espen Skjervold
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package javaEventing;
+
+import javaEventing.interfaces.Event;
+
+/**
+ * An event carrying a long value without boxing it. Extend it to define your own long valued events, and receive them through a
+ * LongEventListener registered with EventManagerInstance.registerLongEventListener(...). The value is only boxed if
+ * getPayload() is called.
+ */
+public class LongEvent implements Event {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long value;
+
+    public LongEvent(long value) {
+        this.value = value;
+    }
+
+    public long getValue() {
+        return value;
+    }
+
+    public Object getPayload() {
+        return Long.valueOf(value);
+    }
+}
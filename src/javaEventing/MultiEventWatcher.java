@@ -20,22 +20,30 @@ import javaEventing.interfaces.Event;
 import javaEventing.interfaces.GenericEventListener;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Helper-class for subscribing to multiple events. Use this class when actions should be taken if event x OR event y is triggered.
+ * Each watched event class has its own listener, so an event only touches the state of its own class, and the number of
+ * events still missing is kept in a counter. Waking a waiter therefore costs the same whether one or hundreds of event
+ * classes are watched.
  */
 
 public class MultiEventWatcher {
 
-    private List<EventAndCondition> eventsAndConditions;
-    private final Object lockobject  =new Object();
-    private boolean hasBeenTriggered;
-    private Event theEventThatWasTriggered;
+    private final Map<Class<? extends Event>, EventAndCondition> eventsAndConditions = new LinkedHashMap<Class<? extends Event>, EventAndCondition>();
+    private volatile Round round = new Round(0);
+    private volatile boolean hasBeenTriggered;
+    private volatile Event theEventThatWasTriggered;
     private EventManagerInstance eventManager;
 
     public MultiEventWatcher(EventManagerInstance eventManager) {
-        eventsAndConditions = new ArrayList<EventAndCondition>();
         this.eventManager = eventManager;
     }
 
@@ -49,69 +57,78 @@ public class MultiEventWatcher {
 
      /**
      * Registers an event for the multi-event watcher to watch. Any number of events can be registered.
+     * Adding an event class that is already watched replaces its condition.
      * @param event The events the multi-event watcher will subsribe to.
      * @param condition Each registered event may have a specific condition in order for the watcher to be notified. One may mix and match with events with and without condtions.
      */
     public void addEvent(Class<? extends Event> eventClass, Condition condition) {
-        registerEventListenerForEvent(eventClass, condition);
+        EventAndCondition previous;
+        EventAndCondition eventAndCondition = new EventAndCondition(eventClass, condition);
+
+        synchronized (eventsAndConditions) {
+            previous = eventsAndConditions.put(eventClass, eventAndCondition);
+            if (previous == null)
+                round.remaining.incrementAndGet();
+            else
+                eventAndCondition.triggeredIn.set(previous.triggeredIn.get());
+        }
+
+        if (previous != null)
+            eventManager.unregisterEventListener(previous.genericEventListener, eventClass);
+        register(eventAndCondition);
     }
 
     /**
      * Blocking call. The thread execution will freeze until one of the registered events are triggered.
      * @param timeout The number of milliseconds before unblocking the call, regardless of whether or not any of the events are triggered. If zero, it will never time out.
+     * @throws IllegalStateException if no events have been added to the watcher.
      */
     public boolean waitForAnyEvent(long timeout) {
-
-        if (hasBeenTriggered)
-            return true;
-
-
-        synchronized (lockobject) {
-            try {
-                lockobject.wait(timeout);
-            } catch (InterruptedException e) {}
-        }
-
-
+        checkWatching();
+        await(round.anyTriggered, timeout);
         return hasBeenTriggered;
-
     }
 
 
     /**
         * Blocking call. The thread execution will freeze until all of the registered events are triggered.
         * @param timeout The number of milliseconds before unblocking the call, regardless of whether or not all the events have been triggered. If zero, it will never time out.
+        * @throws IllegalStateException if no events have been added to the watcher.
         */
-       public boolean waitForAllEvents(long timeout) {
-
-           if (hasBeenTriggered)
-               return true;
-
-           long start = System.currentTimeMillis();
-           synchronized (lockobject) {
-               try {
-                   while (!areAllEventsTriggered() && (timeout>0 && System.currentTimeMillis()-start < timeout))
-                       lockobject.wait(timeout);
-
-               } catch (InterruptedException e) {}
-           }
-
-
-           hasBeenTriggered = areAllEventsTriggered();
-
-            return hasBeenTriggered;
-
-       }
+    public boolean waitForAllEvents(long timeout) {
+        checkWatching();
+        hasBeenTriggered = await(round.allTriggered, timeout);
+        return hasBeenTriggered;
+    }
 
+    private void checkWatching() {
+        synchronized (eventsAndConditions) {
+            if (eventsAndConditions.isEmpty())
+                throw new IllegalStateException("No events have been added to the watcher");   // waiting would never end
+        }
+    }
 
-   private boolean areAllEventsTriggered() {
-        for (EventAndCondition eventAndCondition : eventsAndConditions) {
-            if (!eventAndCondition.triggered)
-                return false;
+    private boolean await(CountDownLatch latch, long timeout) {
+        try {
+            if (timeout == 0) {
+                latch.await();
+                return true;
+            }
+            return latch.await(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return latch.getCount() == 0;
+        } finally {
+            keepReachable();
         }
+    }
 
-       return true;
-   }
+    /**
+     * Called once a wait is over, so the watcher, which alone refers to its weakly registered listeners, cannot be garbage
+     * collected while a thread waits, even if the caller keeps no reference to it.
+     */
+    private synchronized void keepReachable() {
+    }
 
 
      /**
@@ -120,11 +137,7 @@ public class MultiEventWatcher {
         */
     public boolean waitForAllEventsThenUnregister(long timeout) {
         boolean res = waitForAllEvents(timeout);
-
-        for (EventAndCondition eventAndCondition: eventsAndConditions) {
-            eventManager.unregisterEventListener(eventAndCondition.genericEventListener, eventAndCondition.eventClass);
-        }
-
+        unregisterEvents();
         return res;
     }
 
@@ -134,12 +147,17 @@ public class MultiEventWatcher {
      */
     public boolean waitForAnyEventThenUnregister(long timeout) {
         boolean res = waitForAnyEvent(timeout);
+        unregisterEvents();
+        return res;
+    }
 
-        for (EventAndCondition eventAndCondition: eventsAndConditions) {
+    /**
+     * Unregisters the internal event listeners of the watcher.
+     */
+    public void unregisterEvents() {
+        for (EventAndCondition eventAndCondition : snapshot()) {
             eventManager.unregisterEventListener(eventAndCondition.genericEventListener, eventAndCondition.eventClass);
         }
-
-        return res;
     }
 
     /**
@@ -165,54 +183,68 @@ public class MultiEventWatcher {
     }
 
 
-    private void registerEventListenerForEvent(Class<? extends Event> eventClass, Condition condition) {
-        GenericEventListener genericEventListener = new GenericEventListener() {
-                public void eventTriggered(Object sender, Event event) {
-                    hasBeenTriggered=true;
-                    theEventThatWasTriggered=event;
-                    for (EventAndCondition eventAndCondition : eventsAndConditions) {
-                        if (eventAndCondition.eventClass == event.getClass())
-                            eventAndCondition.triggered=true;
-                    }
-                    synchronized (lockobject) {
-                        lockobject.notifyAll();
-                    }
-                }
-            };
-
-        if (condition ==null )
-            eventManager.registerEventListener(genericEventListener, eventClass);
-        else
-            eventManager.registerEventListener(genericEventListener, eventClass, condition);
-
-
-        EventAndCondition eventAndCondition = new EventAndCondition(eventClass, condition);
-        eventAndCondition.genericEventListener=genericEventListener;
+    private void register(EventAndCondition eventAndCondition) {
+        // weak, so a forgotten watcher can still be collected
+        eventManager.registerWeakEventListener(null, eventAndCondition.genericEventListener, eventAndCondition.eventClass, eventAndCondition.condition);
+    }
 
-        eventsAndConditions.add(eventAndCondition);
+    private List<EventAndCondition> snapshot() {
+        synchronized (eventsAndConditions) {
+            return new ArrayList<EventAndCondition>(eventsAndConditions.values());
+        }
     }
 
     /**
      *  Allows re-using an event watcher object after being triggered and notified.
      */
     public void reEnableMultiEventWatcher() {
-        hasBeenTriggered=false;
-        theEventThatWasTriggered=null;
+        List<EventAndCondition> watched;
+        synchronized (eventsAndConditions) {
+            hasBeenTriggered = false;
+            theEventThatWasTriggered = null;
+            round = new Round(eventsAndConditions.size());     // no event class has been triggered in the new round yet
+            watched = new ArrayList<EventAndCondition>(eventsAndConditions.values());
+        }
 
-        for (EventAndCondition eventAndCondition: eventsAndConditions) {
-            eventManager.registerEventListener(eventAndCondition.genericEventListener, eventAndCondition.eventClass);
+        for (EventAndCondition eventAndCondition : watched) {
+            register(eventAndCondition);
+        }
+    }
+
+    /**
+     * The latches of one use of the watcher. reEnableMultiEventWatcher() starts a new round, so waiters of the previous
+     * round are not affected by the reset.
+     */
+    private static class Round {
+        final AtomicInteger remaining;
+        final CountDownLatch anyTriggered = new CountDownLatch(1);
+        final CountDownLatch allTriggered = new CountDownLatch(1);
+
+        Round(int remaining) {
+            this.remaining = new AtomicInteger(remaining);
         }
     }
 
     private class EventAndCondition {
-        public Class<? extends Event> eventClass;
-        public Condition condition;
-        public GenericEventListener genericEventListener;
-        public boolean triggered;
+        public final Class<? extends Event> eventClass;
+        public final Condition condition;
+        public final GenericEventListener genericEventListener;
+        public final AtomicReference<Round> triggeredIn = new AtomicReference<Round>();     // the last round the event class was triggered in
 
         public EventAndCondition(Class<? extends Event> eventClass, Condition condition) {
             this.eventClass=eventClass;
             this.condition = condition;
+            this.genericEventListener = new GenericEventListener() {
+                public void eventTriggered(Object sender, Event event) {
+                    Round current = round;                      // read once, so a concurrent reEnableMultiEventWatcher() cannot split the delivery across two rounds
+                    theEventThatWasTriggered = event;
+                    hasBeenTriggered = true;
+                    Round last = triggeredIn.get();
+                    if (last != current && triggeredIn.compareAndSet(last, current) && current.remaining.decrementAndGet() == 0)
+                        current.allTriggered.countDown();
+                    current.anyTriggered.countDown();
+                }
+            };
         }
     }
 
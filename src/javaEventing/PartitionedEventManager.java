@@ -0,0 +1,142 @@
+/*
+   Copyright 2011 Espen Skjervold
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package javaEventing;
+
+import javaEventing.interfaces.Condition;
+import javaEventing.interfaces.Event;
+import javaEventing.interfaces.GenericEventListener;
+
+/**
+ * An event manager split into independent lanes, each an EventManagerInstance with its own registry, lock and dispatcher
+ * threads, started when first needed. Events are routed to a lane by their event class, or by a partition key supplied
+ * when triggering, so events of different classes or keys never contend with each other. Listeners are registered with every lane, since events
+ * of one class may be routed to any lane when partition keys are used.
+ * With one thread per lane, events with the same partition key are delivered to each listener in the order they were triggered.
+ */
+public class PartitionedEventManager {
+
+    private final EventManagerInstance[] lanes;
+
+    /**
+     * Creates a partitioned event manager with one dispatcher thread per lane, preserving the order of events per partition key.
+     * @param laneCount The number of lanes, typically the number of available processors.
+     */
+    public PartitionedEventManager(int laneCount) {
+        this(laneCount, 1);
+    }
+
+    /**
+     * Creates a partitioned event manager.
+     * @param laneCount The number of lanes, typically the number of available processors.
+     * @param threadsPerLane The number of dispatcher threads of each lane. With more than one, events in a lane may be delivered out of order.
+     */
+    public PartitionedEventManager(int laneCount, int threadsPerLane) {
+        if (laneCount <= 0 || threadsPerLane <= 0)
+            throw new IllegalArgumentException("laneCount and threadsPerLane must be positive");
+
+        lanes = new EventManagerInstance[laneCount];
+        for (int i = 0; i < laneCount; i++)
+            lanes[i] = EventManagerInstance.createWithSchedulerThreads(threadsPerLane);
+    }
+
+    /**
+     * Registers an event listener with every lane.
+     * @param receiver The callback object that will be called once the event is triggered.
+     * @param eventClass The type of Event that is subscribed to.
+     */
+    public void registerEventListener(GenericEventListener receiver, Class<? extends Event> eventClass) {
+        registerEventListener(null, receiver, eventClass, null);
+    }
+
+    /**
+     * Registers an event listener with every lane.
+     * @param context Any type of object, which will serve as a context for your event listeners. May be null.
+     * @param receiver The callback object that will be called once the event is triggered.
+     * @param eventClass The type of Event that is subscribed to.
+     * @param condition A condition that must be true for the EventListener to be called. May be null.
+     */
+    public void registerEventListener(Object context, GenericEventListener receiver, Class<? extends Event> eventClass, Condition condition) {
+        for (EventManagerInstance lane : lanes)
+            lane.registerEventListener(context, receiver, eventClass, condition);
+    }
+
+    /**
+     * Unregisters an event listener from every lane.
+     */
+    public void unregisterEventListener(GenericEventListener receiver, Class<? extends Event> eventClass) {
+        for (EventManagerInstance lane : lanes)
+            lane.unregisterEventListener(receiver, eventClass);
+    }
+
+    /**
+     * Unregisters all event listeners associated with a specific context from every lane.
+     */
+    public void unregisterAllEventListenersForContext(Object context) {
+        for (EventManagerInstance lane : lanes)
+            lane.unregisterAllEventListenersForContext(context);
+    }
+
+    /**
+     * Triggers an event in the lane of its event class.
+     * @param sender The object instance triggering the event.
+     * @param event An instance of the type of Event that is triggered.
+     */
+    public void triggerEvent(Object sender, Event event) {
+        triggerEvent(sender, event, null);
+    }
+
+    /**
+     * Triggers an event in the lane of its event class.
+     * @param sender The object instance triggering the event.
+     * @param event An instance of the type of Event that is triggered.
+     * @param conditionalExpression An object of any type. Will be checked by any event listeners providing Condition-objects.
+     */
+    public void triggerEvent(Object sender, Event event, Object conditionalExpression) {
+        getLane(event.getClass().getName()).triggerEvent(sender, event, conditionalExpression);
+    }
+
+    /**
+     * Triggers an event in the lane of a partition key. Events triggered with equal keys go to the same lane.
+     * @param partitionKey The key deciding the lane, e.g. a customer or session id.
+     * @param sender The object instance triggering the event.
+     * @param event An instance of the type of Event that is triggered.
+     * @param conditionalExpression An object of any type. Will be checked by any event listeners providing Condition-objects. May be null.
+     */
+    public void triggerPartitionedEvent(Object partitionKey, Object sender, Event event, Object conditionalExpression) {
+        getLane(partitionKey).triggerEvent(sender, event, conditionalExpression);
+    }
+
+    /**
+     * Returns the lane events with the given partition key are routed to.
+     */
+    public EventManagerInstance getLane(Object partitionKey) {
+        int hash = partitionKey == null ? 0 : partitionKey.hashCode();
+        hash ^= hash >>> 16;                   // spread the high bits, so keys differing only there do not share a lane
+        return lanes[(hash & 0x7fffffff) % lanes.length];
+    }
+
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    /**
+     * Shuts down every lane. Queued or scheduled events will not be executed.
+     */
+    public void shutdown() {
+        for (EventManagerInstance lane : lanes)
+            lane.shutdown();
+    }
+}
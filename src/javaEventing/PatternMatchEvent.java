@@ -0,0 +1,55 @@
+/*
+   Copyright 2011 Espen Skjervold
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package javaEventing;
+
+import javaEventing.interfaces.Event;
+
+import java.util.List;
+
+/**
+ * The event delivered to a pattern listener when an EventPattern has matched. Its payload is the list of events that
+ * made up the match, in the order they arrived.
+ */
+public class PatternMatchEvent extends EventObject {
+
+    private static final long serialVersionUID = 1L;
+
+    private final EventPattern pattern;
+    private final Object key;
+    private final List<Event> events;
+
+    public PatternMatchEvent(EventPattern pattern, Object key, List<Event> events) {
+        super(events);
+        this.pattern = pattern;
+        this.key = key;
+        this.events = events;
+    }
+
+    public EventPattern getPattern() {
+        return pattern;
+    }
+
+    /**
+     * Returns the correlation key shared by the matched events, or null if the pattern listener has no KeyExtractor.
+     */
+    public Object getKey() {
+        return key;
+    }
+
+    public List<Event> getEvents() {
+        return events;
+    }
+}
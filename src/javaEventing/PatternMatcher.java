@@ -0,0 +1,217 @@
+/*
+   Copyright 2011 Espen Skjervold
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package javaEventing;
+
+import javaEventing.interfaces.Event;
+import javaEventing.interfaces.GenericEventListener;
+import javaEventing.interfaces.KeyExtractor;
+import javaEventing.internals.DelegatingEventListener;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Matches an EventPattern against the triggered events, and calls the receiver with a PatternMatchEvent for every match.
+ * Partial matches are kept as small state machines, one per correlation key, so handling an event costs one map lookup
+ * and one state transition no matter how many partial matches are in flight. For time bounded patterns, expired
+ * partial matches are purged periodically by the event scheduler. Created by EventManagerInstance.registerPatternListener(...).
+ * The matcher stops, purger included, when it is unregistered, or when any of its subscriptions is removed, such as by
+ * EventManagerInstance.unregisterAllEventSubscriptions().
+ */
+public class PatternMatcher {
+
+    private final EventManagerInstance eventManager;
+    private final GenericEventListener receiver;
+    private final EventPattern pattern;
+    private final KeyExtractor keyExtractor;
+    private final Map<Object, MatchState> states = new HashMap<Object, MatchState>();
+    private final GenericEventListener eventListener;
+    private ScheduledFuture<?> purger;
+    private boolean stopped;
+
+    PatternMatcher(EventManagerInstance eventManager, GenericEventListener receiver, EventPattern pattern, KeyExtractor keyExtractor) {
+        this.eventManager = eventManager;
+        this.receiver = receiver;
+        this.pattern = pattern;
+        this.keyExtractor = keyExtractor;
+        this.eventListener = new PatternListener();
+    }
+
+    void register(ScheduledExecutorService scheduler) {
+        for (Class<? extends Event> eventClass : pattern.getEventClasses())
+            eventManager.registerEventListener(eventListener, eventClass);
+
+        synchronized (this) {
+            if (stopped || pattern.getWithinNanos() == 0)
+                return;
+            purger = scheduler.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    purgeExpiredStates();
+                }
+            }, pattern.getWithinNanos(), pattern.getWithinNanos(), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Stops matching, and discards all partial matches.
+     */
+    public void unregister() {
+        for (Class<? extends Event> eventClass : pattern.getEventClasses())
+            eventManager.unregisterEventListener(eventListener, eventClass);
+        stop();
+    }
+
+    private synchronized void stop() {
+        stopped = true;
+        if (purger != null)
+            purger.cancel(false);
+        states.clear();
+    }
+
+    /**
+     * Returns the number of correlation keys with a partial match in progress.
+     */
+    public synchronized int getPartialMatchCount() {
+        return states.size();
+    }
+
+    public EventPattern getPattern() {
+        return pattern;
+    }
+
+    private void match(Object sender, Event event) {
+        Object key = keyExtractor == null ? null : keyExtractor.getKey(sender, event);
+        long now = System.nanoTime();
+        PatternMatchEvent matchEvent = null;
+
+        synchronized (this) {
+            if (stopped)
+                return;
+            MatchState state = states.get(key);
+            if (state != null && state.isExpired(now)) {
+                states.remove(key);
+                state = null;
+            }
+
+            if (pattern.isSequence())
+                state = advanceSequence(key, state, event, now);
+            else
+                state = advanceThreshold(key, state, event, now);
+
+            if (state != null && state.isComplete()) {
+                states.remove(key);
+                matchEvent = new PatternMatchEvent(pattern, key, state.events);
+            }
+        }
+
+        if (matchEvent != null)
+            receiver.eventTriggered(sender, matchEvent);
+    }
+
+    private MatchState advanceSequence(Object key, MatchState state, Event event, long now) {
+        Class<? extends Event> eventClass = event.getClass();
+
+        if (state != null && eventClass == pattern.getEventClass(state.matched)) {
+            state.add(event);
+        } else if (eventClass == pattern.getEventClass(0)) {
+            state = new MatchState(now, pattern.getLength());          // a new first event starts the match over
+            state.add(event);
+            states.put(key, state);
+        }
+        return state;
+    }
+
+    private MatchState advanceThreshold(Object key, MatchState state, Event event, long now) {
+        int index = pattern.indexOf(event.getClass());
+        if (index < 0)
+            return state;
+
+        if (state == null) {
+            state = new MatchState(now, pattern.getThreshold());
+            states.put(key, state);
+        }
+        if (!state.seen.get(index)) {
+            state.seen.set(index);
+            state.add(event);
+        }
+        return state;
+    }
+
+    private synchronized void purgeExpiredStates() {
+        long now = System.nanoTime();
+        for (Iterator<MatchState> iterator = states.values().iterator(); iterator.hasNext();) {
+            if (iterator.next().isExpired(now))
+                iterator.remove();
+        }
+    }
+
+    /**
+     * The listener registered for the event classes of the pattern. Unlike other wrappers, it keeps a hash code of its own,
+     * so matchers sharing a receiver do not replace each other's subscriptions.
+     */
+    private class PatternListener extends DelegatingEventListener {
+
+        PatternListener() {
+            super(receiver);
+        }
+
+        public void eventTriggered(Object sender, Event event) {
+            match(sender, event);
+        }
+
+        public int hashCode() {
+            return System.identityHashCode(this);
+        }
+
+        public void cancel() {
+            stop();
+        }
+    }
+
+    private class MatchState {
+        final long startNanos;
+        final int required;
+        final List<Event> events;
+        final BitSet seen = new BitSet();
+        int matched;
+
+        MatchState(long startNanos, int required) {
+            this.startNanos = startNanos;
+            this.required = required;
+            this.events = new ArrayList<Event>(required);
+        }
+
+        void add(Event event) {
+            events.add(event);
+            matched++;
+        }
+
+        boolean isComplete() {
+            return matched == required;
+        }
+
+        boolean isExpired(long now) {
+            return pattern.getWithinNanos() > 0 && now - startNanos > pattern.getWithinNanos();
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+   Copyright 2011 Espen Skjervold
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package javaEventing;
+
+import javaEventing.interfaces.Event;
+import javaEventing.internals.TokenBucket;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The rate limits of an EventManagerInstance: a token bucket per sender, all with the same rate, and a token bucket per
+ * limited event class. An event is triggered only if both its sender and its event class have a token left, so each
+ * sender is held to its own share, and a noisy sender cannot use up the capacity of the others.
+ * Senders are told apart by identity, and their buckets do not keep them from being garbage collected. Buckets of senders
+ * that have been collected, or quiet long enough to refill, are dropped, so short-lived senders do not accumulate.
+ */
+class RateLimiter {
+
+    private static final Object NULL_SENDER = new Object();
+    private static final int MIN_SWEEP_THRESHOLD = 1024;
+
+    private volatile SenderLimit senderLimit;            // null if senders are not limited
+    private final ConcurrentHashMap<SenderKey, TokenBucket> senderBuckets = new ConcurrentHashMap<SenderKey, TokenBucket>();
+    private final ReferenceQueue<Object> collectedSenders = new ReferenceQueue<Object>();
+    private final ConcurrentHashMap<Class<?>, TokenBucket> eventClassBuckets = new ConcurrentHashMap<Class<?>, TokenBucket>();
+    private volatile int sweepThreshold = MIN_SWEEP_THRESHOLD;
+
+    private final AtomicLong throttledCount = new AtomicLong();
+    private final ConcurrentHashMap<String, AtomicLong> throttledBySenderClass = new ConcurrentHashMap<String, AtomicLong>();
+    private final ConcurrentHashMap<String, AtomicLong> throttledByEventClass = new ConcurrentHashMap<String, AtomicLong>();
+
+    /**
+     * Gives every sender a bucket of its own with the given rate, or removes the sender limit if eventsPerSecond is zero.
+     */
+    void setSenderLimit(double eventsPerSecond, int burst) {
+        if (eventsPerSecond < 0 || (eventsPerSecond > 0 && burst <= 0))
+            throw new IllegalArgumentException("eventsPerSecond and burst must be positive");
+        senderLimit = eventsPerSecond == 0 ? null : new SenderLimit(eventsPerSecond, burst);
+        senderBuckets.clear();
+    }
+
+    /**
+     * Limits an event class to the given rate, or removes its limit if eventsPerSecond is zero.
+     */
+    void setEventClassLimit(Class<? extends Event> eventClass, double eventsPerSecond, int burst) {
+        if (eventsPerSecond == 0)
+            eventClassBuckets.remove(eventClass);
+        else
+            eventClassBuckets.put(eventClass, new TokenBucket(eventsPerSecond, burst));
+    }
+
+    /**
+     * Takes a token for an event from the buckets of its sender and event class, and counts the event as throttled if either is empty.
+     * A throttled event takes no token from either bucket.
+     * @return true if the event may be triggered.
+     */
+    boolean tryAcquire(Object sender, Class<? extends Event> eventClass) {
+        long now = System.nanoTime();
+
+        // the sender goes first, so the events of a sender over its own limit do not use up the tokens of the event class
+        TokenBucket senderBucket = getSenderBucket(sender, now);
+        if (senderBucket != null && !senderBucket.tryAcquire(now)) {
+            throttled(sender, eventClass);
+            return false;
+        }
+
+        TokenBucket eventClassBucket = eventClassBuckets.get(eventClass);
+        if (eventClassBucket != null && !eventClassBucket.tryAcquire(now)) {
+            if (senderBucket != null)
+                senderBucket.release();
+            throttled(sender, eventClass);
+            return false;
+        }
+        return true;
+    }
+
+    private TokenBucket getSenderBucket(Object sender, long now) {
+        SenderLimit limit = senderLimit;
+        if (limit == null)
+            return null;
+
+        if (sender == null)
+            sender = NULL_SENDER;
+        TokenBucket senderBucket = senderBuckets.get(new SenderProbe(sender));
+        if (senderBucket == null) {
+            for (Reference<?> collected = collectedSenders.poll(); collected != null; collected = collectedSenders.poll())
+                senderBuckets.remove(collected);
+            if (senderBuckets.size() > sweepThreshold)
+                sweepRefilledBuckets(now);
+            TokenBucket created = new TokenBucket(limit.eventsPerSecond, limit.burst);
+            senderBucket = senderBuckets.putIfAbsent(new SenderKey(sender, collectedSenders), created);
+            if (senderBucket == null)
+                senderBucket = created;
+        }
+        return senderBucket;
+    }
+
+    /**
+     * Drops the buckets that have refilled, which a new bucket would replace with no difference.
+     */
+    private synchronized void sweepRefilledBuckets(long now) {
+        if (senderBuckets.size() <= sweepThreshold)
+            return;                                      // swept by another thread meanwhile
+        for (Iterator<TokenBucket> iterator = senderBuckets.values().iterator(); iterator.hasNext();) {
+            if (iterator.next().isFull(now))
+                iterator.remove();
+        }
+        sweepThreshold = Math.max(MIN_SWEEP_THRESHOLD, senderBuckets.size() * 2);
+    }
+
+    private void throttled(Object sender, Class<? extends Event> eventClass) {
+        throttledCount.incrementAndGet();
+        increment(throttledBySenderClass, sender == null ? "null" : sender.getClass().getName());
+        increment(throttledByEventClass, eventClass.getName());
+    }
+
+    private static void increment(ConcurrentHashMap<String, AtomicLong> counts, String key) {
+        AtomicLong count = counts.get(key);
+        if (count == null) {
+            AtomicLong created = new AtomicLong();
+            count = counts.putIfAbsent(key, created);
+            if (count == null)
+                count = created;
+        }
+        count.incrementAndGet();
+    }
+
+    long getThrottledCount() {
+        return throttledCount.get();
+    }
+
+    Map<String, Long> getThrottledCountsBySenderClass() {
+        return snapshot(throttledBySenderClass);
+    }
+
+    Map<String, Long> getThrottledCountsByEventClass() {
+        return snapshot(throttledByEventClass);
+    }
+
+    private static Map<String, Long> snapshot(Map<String, AtomicLong> counts) {
+        Map<String, Long> snapshot = new HashMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : counts.entrySet())
+            snapshot.put(entry.getKey(), entry.getValue().get());
+        return snapshot;
+    }
+
+    /**
+     * The rate and burst of the bucket of each sender, published together, so a bucket is never created with the rate of one
+     * limit and the burst of another.
+     */
+    private static class SenderLimit {
+        final double eventsPerSecond;
+        final int burst;
+
+        SenderLimit(double eventsPerSecond, int burst) {
+            this.eventsPerSecond = eventsPerSecond;
+            this.burst = burst;
+        }
+    }
+
+    /**
+     * Refers to a sender without keeping it from being garbage collected. Keys are equal if they refer to the same sender.
+     */
+    private static class SenderKey extends WeakReference<Object> {
+        private final int hashCode;
+
+        SenderKey(Object sender, ReferenceQueue<Object> queue) {
+            super(sender, queue);
+            this.hashCode = System.identityHashCode(sender);
+        }
+
+        public int hashCode() {
+            return hashCode;
+        }
+
+        public boolean equals(Object other) {
+            if (other == this)
+                return true;
+            if (other instanceof SenderProbe)
+                return ((SenderProbe) other).sender == get();
+            if (!(other instanceof SenderKey))
+                return false;
+            Object sender = get();
+            return sender != null && sender == ((SenderKey) other).get();
+        }
+    }
+
+    /**
+     * Looks up the bucket of a sender, equal to the SenderKey referring to it. Unlike a SenderKey, it is not a reference, so
+     * looking up costs the garbage collector nothing; a SenderKey is only created to add a bucket.
+     */
+    private static class SenderProbe {
+        private final Object sender;
+
+        SenderProbe(Object sender) {
+            this.sender = sender;
+        }
+
+        public int hashCode() {
+            return System.identityHashCode(sender);
+        }
+
+        public boolean equals(Object other) {
+            return other instanceof SenderKey && ((SenderKey) other).get() == sender;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+   Copyright 2011 Espen Skjervold
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package javaEventing;
+
+import javaEventing.interfaces.CorrelatedEvent;
+import javaEventing.interfaces.Event;
+import javaEventing.interfaces.GenericEventListener;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The single listener for a reply event class, completing the pending request futures by correlation id. Replies
+ * without a pending request, such as late replies to timed out requests, are ignored.
+ */
+class ReplyRouter implements GenericEventListener {
+
+    private final ConcurrentMap<Object, EventFuture> pendingRequests = new ConcurrentHashMap<Object, EventFuture>();
+
+    /**
+     * Adds a pending request, failing if a request with the same correlation id is already pending.
+     */
+    void addPendingRequest(Object correlationId, EventFuture future) {
+        if (pendingRequests.putIfAbsent(correlationId, future) != null)
+            throw new IllegalArgumentException("A request with correlation id " + correlationId + " is already pending");
+    }
+
+    void removePendingRequest(Object correlationId, EventFuture future) {
+        pendingRequests.remove(correlationId, future);
+    }
+
+    /**
+     * Fails the pending requests, which can no longer get a reply or time out.
+     */
+    void failPendingRequests(Throwable failure) {
+        for (EventFuture future : pendingRequests.values())
+            future.fail(failure);
+    }
+
+    int getPendingRequestCount() {
+        return pendingRequests.size();
+    }
+
+    public void eventTriggered(Object sender, Event event) {
+        Object correlationId = ((CorrelatedEvent) event).getCorrelationId();
+        EventFuture future = correlationId == null ? null : pendingRequests.remove(correlationId);
+        if (future != null)
+            future.complete(sender, event);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+   Copyright 2011 Espen Skjervold
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package javaEventing;
+
+/**
+ * The outcome of EventManagerInstance.shutdownGracefully(...). Work is counted in events queued for dispatching and, when
+ * listeners are called on the event scheduler, deliveries of a matched event to single listeners.
+ */
+public class ShutdownReport {
+
+    private final long completedCount;
+    private final int undeliveredCount;
+    private final int interruptedCount;
+    private final int cancelledFutureEventCount;
+    private final int cancelledPeriodicEventCount;
+
+    ShutdownReport(long completedCount, int undeliveredCount, int interruptedCount, int cancelledFutureEventCount,
+            int cancelledPeriodicEventCount) {
+        this.completedCount = completedCount;
+        this.undeliveredCount = undeliveredCount;
+        this.interruptedCount = interruptedCount;
+        this.cancelledFutureEventCount = cancelledFutureEventCount;
+        this.cancelledPeriodicEventCount = cancelledPeriodicEventCount;
+    }
+
+    /**
+     * Returns the number of queued or running events and deliveries that completed while draining.
+     */
+    public long getCompletedCount() {
+        return completedCount;
+    }
+
+    /**
+     * Returns the number of queued events and deliveries that were not started before the timeout, and of events held back
+     * by wrapping listeners such as debounced or windowed ones. They were handed to the undelivered event handler instead.
+     */
+    public int getUndeliveredCount() {
+        return undeliveredCount;
+    }
+
+    /**
+     * Returns the number of events and deliveries still running when the timeout expired. Unless the event manager uses
+     * the shared scheduler, their threads were interrupted, so they may or may not have completed.
+     */
+    public int getInterruptedCount() {
+        return interruptedCount;
+    }
+
+    /**
+     * Returns the number of events scheduled by triggerFutureEvent(...) that had not fired yet. They were handed to the
+     * undelivered event handler.
+     */
+    public int getCancelledFutureEventCount() {
+        return cancelledFutureEventCount;
+    }
+
+    /**
+     * Returns the number of periodic events scheduled by triggerPeriodicEvent(...) that were cancelled.
+     */
+    public int getCancelledPeriodicEventCount() {
+        return cancelledPeriodicEventCount;
+    }
+
+    /**
+     * Returns true if everything queued or running was delivered before the timeout.
+     */
+    public boolean isComplete() {
+        return undeliveredCount == 0 && interruptedCount == 0;
+    }
+
+    public String toString() {
+        return "completed=" + completedCount + ", undelivered=" + undeliveredCount + ", interrupted=" + interruptedCount
+                + ", cancelledFutureEvents=" + cancelledFutureEventCount + ", cancelledPeriodicEvents=" + cancelledPeriodicEventCount;
+    }
+}
@@ -0,0 +1,38 @@
+/*
+   Copyright 2011 Espen Skjervold
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package javaEventing;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a method as an event handler, to be registered with EventManagerInstance.registerAnnotatedListeners(object).
+ * The method takes the event, with its own Event type, and optionally the sender before it:
+ * <pre>
+ *    &#64;Subscribe
+ *    void orderPlaced(Object sender, OrderPlaced event) { ... }
+ * </pre>
+ * The event class subscribed to is the type of the event parameter. When javaEventing.processing.SubscribeProcessor runs
+ * during compilation, it generates classes calling the handlers directly; otherwise, handlers are called through reflection.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Subscribe {
+}
@@ -0,0 +1,54 @@
+/*
+   Copyright 2011 Espen Skjervold
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package javaEventing;
+
+import javaEventing.interfaces.DispatchProbe;
+import javaEventing.interfaces.Event;
+
+/**
+ * A DispatchProbe together with its threshold. Durations below the threshold are dropped here, so the probe only sees
+ * the slow operations.
+ */
+class ThresholdedProbe {
+
+    private final DispatchProbe probe;
+    private final long thresholdNanos;
+
+    ThresholdedProbe(DispatchProbe probe, long thresholdNanos) {
+        this.probe = probe;
+        this.thresholdNanos = thresholdNanos;
+    }
+
+    void eventTriggered(Class<? extends Event> eventClass, long durationNanos) {
+        if (durationNanos >= thresholdNanos)
+            probe.eventTriggered(eventClass, durationNanos);
+    }
+
+    void batchDispatched(int eventCount, long durationNanos) {
+        if (durationNanos >= thresholdNanos)
+            probe.batchDispatched(eventCount, durationNanos);
+    }
+
+    void listenerInvoked(Class<?> listenerClass, Class<? extends Event> eventClass, long durationNanos) {
+        if (durationNanos >= thresholdNanos)
+            probe.listenerInvoked(listenerClass, eventClass, durationNanos);
+    }
+
+    void queueStalled(Class<? extends Event> eventClass, long durationNanos) {
+        if (durationNanos >= thresholdNanos)
+            probe.queueStalled(eventClass, durationNanos);
+    }
+}
@@ -0,0 +1,58 @@
+/*
+   Copyright 2011 Espen Skjervold
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package javaEventing;
+
+import javaEventing.interfaces.Event;
+
+import java.util.List;
+
+/**
+ * The event delivered to a windowed event listener once per window. Its payload is the aggregated result when the
+ * listener was registered with an EventAggregator, or else the list of events in the window.
+ */
+public class WindowEvent extends EventObject {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<Event> events;
+    private final int eventCount;
+
+    public WindowEvent(List<Event> events) {
+        super(events);
+        this.events = events;
+        this.eventCount = events.size();
+    }
+
+    public WindowEvent(Object aggregate, int eventCount) {
+        super(aggregate);
+        this.events = null;
+        this.eventCount = eventCount;
+    }
+
+    /**
+     * Returns the events in the window, oldest first, or null if the window was aggregated.
+     */
+    public List<Event> getEvents() {
+        return events;
+    }
+
+    /**
+     * Returns the number of events that went into this window.
+     */
+    public int getEventCount() {
+        return eventCount;
+    }
+}
@@ -0,0 +1,46 @@
+/*
+    Copyright 2011 Espen Skjervold
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package javaEventing.interfaces;
+
+/**
+ * Implement this interface to observe the event dispatching of an EventManagerInstance, e.g. to forward slow operations
+ * to a monitoring or recording system. Install it with EventManagerInstance.setDispatchProbe(probe, threshold, timeUnit);
+ * only operations taking at least the threshold are reported. Methods are called on the threads doing the work, so they
+ * should return quickly.
+ */
+public interface DispatchProbe {
+
+    /**
+     * Called when triggering an event, including handing it to the dispatching threads, took at least the threshold.
+     */
+    void eventTriggered(Class<? extends Event> eventClass, long durationNanos);
+
+    /**
+     * Called when dispatching a batch of events took at least the threshold. With dispatcher threads, a batch is the events
+     * a dispatcher delivered without running out of work; otherwise it is the matching of a single event against its subscribers.
+     */
+    void batchDispatched(int eventCount, long durationNanos);
+
+    /**
+     * Called when a listener took at least the threshold to handle an event.
+     */
+    void listenerInvoked(Class<?> listenerClass, Class<? extends Event> eventClass, long durationNanos);
+
+    /**
+     * Called when triggering an event had to wait at least the threshold for room in a full dispatcher queue.
+     */
+    void queueStalled(Class<? extends Event> eventClass, long durationNanos);
+}
@@ -0,0 +1,25 @@
+/*
+    Copyright 2011 Espen Skjervold
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package javaEventing.interfaces;
+
+/**
+ * Implement this interface to tell which key an event belongs to, e.g. the order or session id carried in its payload.
+ * Events with equal keys are correlated with each other; events with different keys are kept apart.
+ */
+public interface KeyExtractor {
+
+    Object getKey(Object sender, Event event);
+}
@@ -0,0 +1,31 @@
+/*
+    Copyright 2011 Espen Skjervold
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package javaEventing.interfaces;
+
+/**
+ * Implement this interface to keep the events an EventManagerInstance could not deliver before shutting down, e.g. to
+ * persist them and trigger them again after a restart. Pass it to EventManagerInstance.shutdownGracefully(...).
+ * Methods are called on the thread shutting down the event manager, or on a stopping dispatcher thread.
+ */
+public interface UndeliveredEventHandler {
+
+    /**
+     * Called for each event that was not delivered.
+     * @param receiver The listener the event was matched to but not delivered to, or null if the event was never matched
+     * against its listeners, in which case none of them received it.
+     */
+    void eventUndelivered(Object sender, Event event, Object conditionalExpression, GenericEventListener receiver);
+}
@@ -0,0 +1,84 @@
+/*
+   Copyright 2011 Espen Skjervold
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package javaEventing.internals;
+
+import javaEventing.interfaces.Event;
+import javaEventing.interfaces.GenericEventListener;
+import javaEventing.interfaces.UndeliveredEventHandler;
+
+import java.util.EventListener;
+
+/**
+ * Base class for event listeners that wrap a receiver in order to change when, or how often, it is called.
+ * The wrapper reports the hash code of the wrapped receiver, so that a subscription registered through a wrapper can
+ * still be removed with EventManagerInstance.unregisterEventListener(receiver, eventClass).
+ */
+public abstract class DelegatingEventListener implements GenericEventListener {
+
+    private final int receiverHashCode;
+    private final Class<?> listenerClass;
+
+    protected DelegatingEventListener(EventListener receiver) {
+        this.receiverHashCode = receiver.hashCode();
+        this.listenerClass = getListenerClass(receiver);
+    }
+
+    public int hashCode() {
+        return receiverHashCode;
+    }
+
+    /**
+     * Returns the class of the listener that ends up handling the events passed to the given listener, looking through
+     * wrappers, and through subscriber methods to their target, so statistics are kept per application listener class.
+     */
+    public static Class<?> getListenerClass(EventListener listener) {
+        if (listener instanceof DelegatingEventListener)
+            return ((DelegatingEventListener) listener).listenerClass;
+        if (listener instanceof SubscriberMethod)
+            return ((SubscriberMethod) listener).getTarget().getClass();
+        return listener.getClass();
+    }
+
+    /**
+     * Called by the EventManagerInstance when the subscription is removed. Subclasses holding timers or buffered
+     * events should release them here.
+     */
+    public void cancel() {
+    }
+
+    /**
+     * Called by EventManagerInstance.shutdownGracefully(...) to hand the events held for later delivery to the handler.
+     * They are no longer delivered afterwards. Subclasses holding events should override this.
+     * @param handler The handler of the undelivered events. May be null.
+     * @return the number of events handed over.
+     */
+    public int reportPendingEvents(UndeliveredEventHandler handler) {
+        return 0;
+    }
+
+    /**
+     * Hands an event to the handler, if any, ignoring exceptions thrown by the handler.
+     */
+    protected static void reportUndelivered(UndeliveredEventHandler handler, Object sender, Event event, GenericEventListener receiver) {
+        if (handler == null)
+            return;
+        try {
+            handler.eventUndelivered(sender, event, null, receiver);
+        } catch (RuntimeException e) {
+            // a failing handler must not hide the remaining events
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*
+   Copyright 2011 Espen Skjervold
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package javaEventing.internals;
+
+import javaEventing.DoubleEvent;
+import javaEventing.interfaces.Event;
+import javaEventing.interfaces.DoubleEventListener;
+
+/**
+ * Adapts a DoubleEventListener to the event registry, passing on the double value of each event without boxing it.
+ */
+public class DoubleEventListenerAdapter extends DelegatingEventListener {
+
+    private final DoubleEventListener receiver;
+
+    public DoubleEventListenerAdapter(DoubleEventListener receiver) {
+        super(receiver);
+        this.receiver = receiver;
+    }
+
+    public void eventTriggered(Object sender, Event event) {
+        DoubleEvent doubleEvent = (DoubleEvent) event;
+        receiver.eventTriggered(sender, doubleEvent, doubleEvent.getValue());
+    }
+}
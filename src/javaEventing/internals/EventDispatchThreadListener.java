@@ -0,0 +1,108 @@
+/*
+   Copyright 2011 Espen Skjervold
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package javaEventing.internals;
+
+import javaEventing.interfaces.Event;
+import javaEventing.interfaces.GenericEventListener;
+import javaEventing.interfaces.UndeliveredEventHandler;
+
+import java.awt.EventQueue;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Calls the receiver on the AWT event dispatch thread. Events arriving while a delivery is already pending on the event
+ * dispatch thread are added to it, so a burst of events costs a single runnable on the event queue, and the receiver
+ * gets them one by one, in the order they arrived, without taking turns with repaints in between.
+ */
+public class EventDispatchThreadListener extends DelegatingEventListener {
+
+    private final GenericEventListener receiver;
+    private final Runnable drainer = new Runnable() {
+        public void run() {
+            deliverPendingEvents();
+        }
+    };
+
+    private List<EventHistory.Entry> pending = new ArrayList<EventHistory.Entry>();
+    private boolean scheduled;
+    private boolean cancelled;
+
+    public EventDispatchThreadListener(GenericEventListener receiver) {
+        super(receiver);
+        this.receiver = receiver;
+    }
+
+    public void eventTriggered(Object sender, Event event) {
+        synchronized (this) {
+            if (cancelled)
+                return;
+            pending.add(new EventHistory.Entry(sender, event, null));
+            if (scheduled)
+                return;
+            scheduled = true;
+        }
+        EventQueue.invokeLater(drainer);
+    }
+
+    private void deliverPendingEvents() {
+        List<EventHistory.Entry> delivered;
+        synchronized (this) {
+            scheduled = false;
+            if (cancelled || pending.isEmpty())
+                return;
+            delivered = pending;
+            pending = new ArrayList<EventHistory.Entry>();
+        }
+
+        for (int i = 0; i < delivered.size(); i++) {
+            try {
+                receiver.eventTriggered(delivered.get(i).getSender(), delivered.get(i).getEvent());
+            } catch (RuntimeException e) {
+                requeue(delivered.subList(i + 1, delivered.size()));     // the events after the failing one are still delivered
+                throw e;
+            }
+        }
+    }
+
+    private void requeue(List<EventHistory.Entry> remaining) {
+        synchronized (this) {
+            if (cancelled || remaining.isEmpty())
+                return;
+            pending.addAll(0, remaining);
+            if (scheduled)
+                return;
+            scheduled = true;
+        }
+        EventQueue.invokeLater(drainer);
+    }
+
+    public synchronized void cancel() {
+        cancelled = true;
+        pending.clear();
+    }
+
+    public int reportPendingEvents(UndeliveredEventHandler handler) {
+        List<EventHistory.Entry> undelivered;
+        synchronized (this) {
+            undelivered = pending;
+            pending = new ArrayList<EventHistory.Entry>();
+        }
+        for (EventHistory.Entry entry : undelivered)
+            reportUndelivered(handler, entry.getSender(), entry.getEvent(), receiver);
+        return undelivered.size();
+    }
+}
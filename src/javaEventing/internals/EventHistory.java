@@ -0,0 +1,136 @@
+/*
+   Copyright 2011 Espen Skjervold
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package javaEventing.internals;
+
+import javaEventing.interfaces.Event;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A fixed size ring of the most recently triggered events of one event class. All slots are allocated up front, and
+ * timestamps are kept in a primitive array, so the memory used is the same at any event rate. Recording an event
+ * overwrites the oldest one once the ring is full.
+ */
+public class EventHistory {
+
+    private final Object[] senders;
+    private final Event[] events;
+    private final Object[] conditionalExpressions;
+    private final long[] timestamps;
+    private int next;
+    private int size;
+
+    public EventHistory(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive");
+        senders = new Object[capacity];
+        events = new Event[capacity];
+        conditionalExpressions = new Object[capacity];
+        timestamps = new long[capacity];
+    }
+
+    public synchronized void record(Object sender, Event event, Object conditionalExpression) {
+        senders[next] = sender;
+        events[next] = event;
+        conditionalExpressions[next] = conditionalExpression;
+        timestamps[next] = System.nanoTime();
+
+        next = (next + 1) % events.length;
+        if (size < events.length)
+            size++;
+    }
+
+    /**
+     * Returns the recorded events, oldest first.
+     * @param maxEvents The maximum number of events returned, counted from the most recent one.
+     * @param maxAgeNanos Only events recorded within this many nanoseconds are returned. If zero, age is not checked.
+     */
+    public List<Event> getEvents(int maxEvents, long maxAgeNanos) {
+        List<Event> result = new ArrayList<Event>();
+        for (Entry entry : getEntries(maxEvents, maxAgeNanos))
+            result.add(entry.getEvent());
+        return result;
+    }
+
+    /**
+     * Returns the recorded events with their senders and conditional expressions, oldest first.
+     * @param maxEvents The maximum number of events returned, counted from the most recent one.
+     * @param maxAgeNanos Only events recorded within this many nanoseconds are returned. If zero, age is not checked.
+     */
+    public synchronized List<Entry> getEntries(int maxEvents, long maxAgeNanos) {
+        long now = System.nanoTime();
+        int count = 0;
+
+        // walk backwards from the most recent event to find how many qualify
+        while (count < size && count < maxEvents) {
+            int index = slot(count);
+            if (maxAgeNanos > 0 && now - timestamps[index] > maxAgeNanos)
+                break;
+            count++;
+        }
+
+        List<Entry> result = new ArrayList<Entry>(count);
+        for (int i = count - 1; i >= 0; i--) {
+            int index = slot(i);
+            result.add(new Entry(senders[index], events[index], conditionalExpressions[index]));
+        }
+        return result;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return events.length;
+    }
+
+    /**
+     * Returns the array index of the event recorded age events before the most recent one.
+     */
+    private int slot(int age) {
+        return (next - 1 - age + events.length * 2) % events.length;
+    }
+
+    /**
+     * An event along with its sender and conditional expression, as recorded here, or as held by a listener until it
+     * delivers the event later.
+     */
+    public static class Entry {
+        private final Object sender;
+        private final Event event;
+        private final Object conditionalExpression;
+
+        public Entry(Object sender, Event event, Object conditionalExpression) {
+            this.sender = sender;
+            this.event = event;
+            this.conditionalExpression = conditionalExpression;
+        }
+
+        public Object getSender() {
+            return sender;
+        }
+
+        public Event getEvent() {
+            return event;
+        }
+
+        public Object getConditionalExpression() {
+            return conditionalExpression;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+   Copyright 2011 Espen Skjervold
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package javaEventing.internals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The scheduler of an event manager. Timed work runs on a few timer threads, while tasks to be run at once, such as event
+ * deliveries, run on a pool that only starts a thread when a task arrives and no thread is idle, up to a maximum; beyond
+ * that, tasks are queued. So the number of threads follows the number of deliveries actually overlapping, not the number
+ * of deliveries made. Idle threads of both stop after the keep alive time.
+ */
+public class EventScheduler extends ScheduledThreadPoolExecutor {
+
+    private final ThreadPoolExecutor deliveryExecutor;
+    private final AtomicInteger unfinishedTasks = new AtomicInteger();   // queued or running on the delivery pool
+
+    /**
+     * @param maxThreads The maximum number of threads running tasks at once.
+     * @param timerThreads The maximum number of threads running timed work.
+     * @param name The prefix of the thread names.
+     * @param keepAliveNanos How long a thread stays alive while idle.
+     */
+    public EventScheduler(int maxThreads, int timerThreads, String name, long keepAliveNanos) {
+        super(timerThreads, new NamingThreadFactory(name + "-timer"));
+        setKeepAliveTime(keepAliveNanos, TimeUnit.NANOSECONDS);
+        allowCoreThreadTimeOut(true);
+
+        final DeliveryQueue queue = new DeliveryQueue();
+        deliveryExecutor = new ThreadPoolExecutor(0, maxThreads, keepAliveNanos, TimeUnit.NANOSECONDS, queue, new NamingThreadFactory(name),
+                new RejectedExecutionHandler() {
+                    public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+                        if (executor.isShutdown())
+                            throw new RejectedExecutionException("The scheduler has been shut down");
+                        queue.enqueue(task);               // all threads are busy
+                    }
+                }) {
+            protected void afterExecute(Runnable task, Throwable thrown) {
+                unfinishedTasks.decrementAndGet();
+            }
+        };
+    }
+
+    public void execute(Runnable task) {
+        unfinishedTasks.incrementAndGet();
+        try {
+            deliveryExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            unfinishedTasks.decrementAndGet();
+            throw e;
+        }
+    }
+
+    public Future<?> submit(Runnable task) {
+        return submit(task, null);
+    }
+
+    public <T> Future<T> submit(Runnable task, T result) {
+        return submit(Executors.callable(task, result));
+    }
+
+    public <T> Future<T> submit(Callable<T> task) {
+        FutureTask<T> future = new FutureTask<T>(task);
+        execute(future);
+        return future;
+    }
+
+    public void setKeepAliveTime(long time, TimeUnit unit) {
+        super.setKeepAliveTime(time, unit);
+        if (deliveryExecutor != null)                      // called by the constructor before it is created
+            deliveryExecutor.setKeepAliveTime(time, unit);
+    }
+
+    public void shutdown() {
+        super.shutdown();
+        deliveryExecutor.shutdown();
+    }
+
+    public List<Runnable> shutdownNow() {
+        List<Runnable> notRun = new ArrayList<Runnable>(super.shutdownNow());
+        notRun.addAll(deliveryExecutor.shutdownNow());
+        return notRun;
+    }
+
+    public boolean isTerminated() {
+        return super.isTerminated() && deliveryExecutor.isTerminated();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        return super.awaitTermination(timeout, unit) && deliveryExecutor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Declines a task when no thread is idle to take it, so the pool starts a new thread for it, unless it is at its maximum
+     * and the rejection handler queues the task after all.
+     */
+    private class DeliveryQueue extends LinkedBlockingQueue<Runnable> {
+        private static final long serialVersionUID = 1L;
+
+        public boolean offer(Runnable task) {
+            int threads = deliveryExecutor.getPoolSize();
+            if (unfinishedTasks.get() > threads && threads < deliveryExecutor.getMaximumPoolSize())
+                return false;
+            return super.offer(task);
+        }
+
+        void enqueue(Runnable task) {
+            super.offer(task);
+        }
+    }
+
+    /**
+     * Starts daemon threads named after the scheduler, so they do not keep the JVM from exiting.
+     */
+    private static class NamingThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        NamingThreadFactory(String name) {
+            this.name = name;
+        }
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, name + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
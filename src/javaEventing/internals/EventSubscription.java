@@ -24,11 +24,17 @@ public class EventSubscription {
         private GenericEventListener receiver;
         private Class<? extends Event> eventClass;
         private Condition condition;
+        private Object context;
 
         public EventSubscription(GenericEventListener receiver, Class<? extends Event> eventClass, Condition condition) {
+            this(receiver, eventClass, condition, null);
+        }
+
+        public EventSubscription(GenericEventListener receiver, Class<? extends Event> eventClass, Condition condition, Object context) {
             this.receiver = receiver;
             this.eventClass = eventClass;
             this.condition = condition;
+            this.context = context;
         }
 
         public GenericEventListener getReceiver() {
@@ -46,4 +52,11 @@ public class EventSubscription {
         public Condition getCondition() {
             return condition;
         }
+
+        /**
+         * Returns the context the subscription was registered with, or null.
+         */
+        public Object getContext() {
+            return context;
+        }
     }
\ No newline at end of file
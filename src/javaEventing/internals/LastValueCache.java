@@ -0,0 +1,124 @@
+/*
+   Copyright 2011 Espen Skjervold
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package javaEventing.internals;
+
+import javaEventing.interfaces.Event;
+import javaEventing.interfaces.KeyExtractor;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the last event triggered for each key of one event class. The cache holds at most maxEntries keys, evicting the
+ * least recently used one when full, and entries older than the time to live are treated as absent.
+ */
+public class LastValueCache {
+
+    private final KeyExtractor keyExtractor;
+    private final long timeToLiveNanos;
+    private final Map<Object, CachedEvent> entries;
+
+    /**
+     * @param keyExtractor Tells which key an event is cached under. If null, only the very last event is cached.
+     * @param maxEntries The maximum number of keys kept.
+     * @param timeToLiveNanos How long an entry stays valid, in nanoseconds. If zero, entries never expire.
+     */
+    public LastValueCache(KeyExtractor keyExtractor, final int maxEntries, long timeToLiveNanos) {
+        if (maxEntries <= 0)
+            throw new IllegalArgumentException("maxEntries must be positive");
+        this.keyExtractor = keyExtractor;
+        this.timeToLiveNanos = timeToLiveNanos;
+        this.entries = new LinkedHashMap<Object, CachedEvent>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Object, CachedEvent> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public synchronized void put(Object sender, Event event, Object conditionalExpression) {
+        Object key = keyExtractor == null ? null : keyExtractor.getKey(sender, event);
+        entries.put(key, new CachedEvent(sender, event, conditionalExpression, System.nanoTime()));
+    }
+
+    /**
+     * Returns the last event cached under a key, or null if there is none or it has expired.
+     */
+    public synchronized CachedEvent get(Object key) {
+        CachedEvent cachedEvent = entries.get(key);
+        if (cachedEvent != null && isExpired(cachedEvent, System.nanoTime())) {
+            entries.remove(key);
+            return null;
+        }
+        return cachedEvent;
+    }
+
+    /**
+     * Returns all cached events that have not expired, least recently used first. Expired entries are removed.
+     */
+    public synchronized List<CachedEvent> getAll() {
+        long now = System.nanoTime();
+        List<CachedEvent> result = new ArrayList<CachedEvent>(entries.size());
+        for (Iterator<CachedEvent> iterator = entries.values().iterator(); iterator.hasNext();) {
+            CachedEvent cachedEvent = iterator.next();
+            if (isExpired(cachedEvent, now))
+                iterator.remove();
+            else
+                result.add(cachedEvent);
+        }
+        return result;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private boolean isExpired(CachedEvent cachedEvent, long now) {
+        return timeToLiveNanos > 0 && now - cachedEvent.getTimestampNanos() > timeToLiveNanos;
+    }
+
+    public static class CachedEvent {
+        private final Object sender;
+        private final Event event;
+        private final Object conditionalExpression;
+        private final long timestampNanos;
+
+        CachedEvent(Object sender, Event event, Object conditionalExpression, long timestampNanos) {
+            this.sender = sender;
+            this.event = event;
+            this.conditionalExpression = conditionalExpression;
+            this.timestampNanos = timestampNanos;
+        }
+
+        public Object getSender() {
+            return sender;
+        }
+
+        public Event getEvent() {
+            return event;
+        }
+
+        public Object getConditionalExpression() {
+            return conditionalExpression;
+        }
+
+        public long getTimestampNanos() {
+            return timestampNanos;
+        }
+    }
+}
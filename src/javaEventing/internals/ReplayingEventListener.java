@@ -0,0 +1,87 @@
+/*
+   Copyright 2011 Espen Skjervold
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package javaEventing.internals;
+
+import javaEventing.interfaces.Event;
+import javaEventing.interfaces.GenericEventListener;
+import javaEventing.interfaces.UndeliveredEventHandler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Holds back live events while recorded events are replayed to the receiver, so the receiver gets the replay first and
+ * then the live events, one by one, in the order they arrived. The replay is delivered by the EventManagerInstance, which
+ * afterwards takes the held back events with takeHeldBackEvents() until there are none left; from then on, live events go
+ * straight to the receiver.
+ */
+public class ReplayingEventListener extends DelegatingEventListener {
+
+    private final GenericEventListener receiver;
+
+    private List<EventHistory.Entry> heldBack = new ArrayList<EventHistory.Entry>();
+    private boolean replaying = true;
+    private boolean cancelled;
+
+    public ReplayingEventListener(GenericEventListener receiver) {
+        super(receiver);
+        this.receiver = receiver;
+    }
+
+    public void eventTriggered(Object sender, Event event) {
+        synchronized (this) {
+            if (cancelled)
+                return;
+            if (replaying) {
+                heldBack.add(new EventHistory.Entry(sender, event, null));
+                return;
+            }
+        }
+        receiver.eventTriggered(sender, event);
+    }
+
+    /**
+     * Returns the live events held back so far, oldest first. Once it returns an empty list,
+     * the replay is over and live events are no longer held back.
+     */
+    public synchronized List<EventHistory.Entry> takeHeldBackEvents() {
+        if (cancelled || heldBack.isEmpty()) {
+            replaying = false;
+            heldBack.clear();
+            return Collections.emptyList();
+        }
+        List<EventHistory.Entry> taken = heldBack;
+        heldBack = new ArrayList<EventHistory.Entry>();
+        return taken;
+    }
+
+    public GenericEventListener getReceiver() {
+        return receiver;
+    }
+
+    public synchronized void cancel() {
+        cancelled = true;
+        heldBack.clear();
+    }
+
+    public int reportPendingEvents(UndeliveredEventHandler handler) {
+        List<EventHistory.Entry> undelivered = takeHeldBackEvents();
+        for (EventHistory.Entry entry : undelivered)
+            reportUndelivered(handler, entry.getSender(), entry.getEvent(), receiver);
+        return undelivered.size();
+    }
+}
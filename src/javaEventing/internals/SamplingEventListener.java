@@ -0,0 +1,91 @@
+/*
+   Copyright 2011 Espen Skjervold
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package javaEventing.internals;
+
+import javaEventing.interfaces.Event;
+import javaEventing.interfaces.GenericEventListener;
+import javaEventing.interfaces.UndeliveredEventHandler;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calls the receiver once per period with the most recent event triggered during that period. Periods without
+ * events are skipped.
+ */
+public class SamplingEventListener extends DelegatingEventListener {
+
+    private final GenericEventListener receiver;
+    private final ScheduledFuture<?> sampler;
+
+    private Object latestSender;
+    private Event latestEvent;
+    private boolean cancelled;
+
+    public SamplingEventListener(GenericEventListener receiver, ScheduledExecutorService scheduler, long period, TimeUnit timeUnit) {
+        super(receiver);
+        this.receiver = receiver;
+        this.sampler = scheduler.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                deliverLatestEvent();
+            }
+        }, period, period, timeUnit);
+    }
+
+    public synchronized void eventTriggered(Object sender, Event event) {
+        if (cancelled)
+            return;
+        latestSender = sender;
+        latestEvent = event;
+    }
+
+    private void deliverLatestEvent() {
+        Object sender;
+        Event event;
+        synchronized (this) {
+            if (cancelled || latestEvent == null)
+                return;
+            sender = latestSender;
+            event = latestEvent;
+            latestSender = null;
+            latestEvent = null;
+        }
+        receiver.eventTriggered(sender, event);
+    }
+
+    public synchronized void cancel() {
+        cancelled = true;
+        latestSender = null;
+        latestEvent = null;
+        sampler.cancel(false);
+    }
+
+    public int reportPendingEvents(UndeliveredEventHandler handler) {
+        Object sender;
+        Event event;
+        synchronized (this) {
+            if (latestEvent == null)
+                return 0;
+            sender = latestSender;
+            event = latestEvent;
+            latestSender = null;
+            latestEvent = null;
+        }
+        reportUndelivered(handler, sender, event, receiver);
+        return 1;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+   Copyright 2011 Espen Skjervold
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package javaEventing.internals;
+
+import javaEventing.Subscribe;
+import javaEventing.interfaces.Event;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the SubscriberFactory of a class: the one generated at compile time if present, or else one calling the annotated
+ * methods through reflection. Factories are looked up once per class.
+ */
+public class SubscriberFactories {
+
+    public static final String GENERATED_SUFFIX = "_Subscribers";
+
+    private static final Map<Class<?>, SubscriberFactory> factories = new HashMap<Class<?>, SubscriberFactory>();
+
+    private SubscriberFactories() {
+    }
+
+    /**
+     * Returns the factory for the Subscribe annotated methods declared by a class, not including those of its superclasses.
+     */
+    public static synchronized SubscriberFactory get(Class<?> declaringClass) {
+        SubscriberFactory factory = factories.get(declaringClass);
+        if (factory == null) {
+            factory = loadGeneratedFactory(declaringClass);
+            if (factory == null)
+                factory = new ReflectiveSubscriberFactory(declaringClass);
+            factories.put(declaringClass, factory);
+        }
+        return factory;
+    }
+
+    private static SubscriberFactory loadGeneratedFactory(Class<?> declaringClass) {
+        try {
+            Class<?> factoryClass = Class.forName(declaringClass.getName().replace('$', '_') + GENERATED_SUFFIX, true, declaringClass.getClassLoader());
+            return (SubscriberFactory) factoryClass.getConstructor().newInstance();
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (InstantiationException e) {
+            return null;
+        } catch (IllegalAccessException e) {
+            return null;
+        } catch (InvocationTargetException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the event class handled by a Subscribe annotated method, or throws IllegalArgumentException if the method
+     * does not take (Event) or (Object sender, Event).
+     */
+    @SuppressWarnings("unchecked")
+    static Class<? extends Event> eventClassOf(Method method) {
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        boolean validSender = parameterTypes.length == 1 || (parameterTypes.length == 2 && parameterTypes[0] == Object.class);
+        if (!validSender || !Event.class.isAssignableFrom(parameterTypes[parameterTypes.length - 1]) || Modifier.isStatic(method.getModifiers()))
+            throw new IllegalArgumentException("@Subscribe method " + method + " must be an instance method taking (Event) or (Object sender, Event)");
+        return (Class<? extends Event>) parameterTypes[parameterTypes.length - 1];
+    }
+
+    private static class ReflectiveSubscriberFactory implements SubscriberFactory {
+        private final List<Method> methods = new ArrayList<Method>();
+
+        ReflectiveSubscriberFactory(Class<?> declaringClass) {
+            for (Method method : declaringClass.getDeclaredMethods()) {
+                if (method.isAnnotationPresent(Subscribe.class)) {
+                    eventClassOf(method);
+                    method.setAccessible(true);
+                    methods.add(method);
+                }
+            }
+        }
+
+        public List<SubscriberMethod> createSubscribers(Object target) {
+            List<SubscriberMethod> subscribers = new ArrayList<SubscriberMethod>();
+            for (Method method : methods)
+                subscribers.add(new ReflectiveSubscriberMethod(target, method));
+            return subscribers;
+        }
+    }
+
+    private static class ReflectiveSubscriberMethod extends SubscriberMethod {
+        private final Method method;
+
+        ReflectiveSubscriberMethod(Object target, Method method) {
+            super(target, eventClassOf(method), method.getName(), method.getParameterTypes().length == 2);
+            this.method = method;
+        }
+
+        public void eventTriggered(Object sender, Event event) {
+            try {
+                if (isWithSender())
+                    method.invoke(getTarget(), sender, event);
+                else
+                    method.invoke(getTarget(), event);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                if (e.getCause() instanceof Error)
+                    throw (Error) e.getCause();
+                throw new RuntimeException(e.getCause());
+            }
+        }
+    }
+}
@@ -0,0 +1,27 @@
+/*
+   Copyright 2011 Espen Skjervold
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package javaEventing.internals;
+
+import java.util.List;
+
+/**
+ * Creates the listeners for the Subscribe annotated methods declared by one class. Implementations are generated by
+ * javaEventing.processing.SubscribeProcessor, named after the class with "_Subscribers" appended.
+ */
+public interface SubscriberFactory {
+
+    List<SubscriberMethod> createSubscribers(Object target);
+}
@@ -0,0 +1,72 @@
+/*
+   Copyright 2011 Espen Skjervold
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package javaEventing.internals;
+
+import javaEventing.interfaces.Event;
+import javaEventing.interfaces.GenericEventListener;
+
+/**
+ * An event listener calling a method annotated with Subscribe on its target object. The hash code is derived from the
+ * target and the method, so a handler can be unregistered with a new instance for the same target and method. As identity
+ * hash codes of different targets may collide, equals(...) compares the target and the method themselves. A method is told
+ * apart from its overloads by its name and full parameter list: the event class, and whether the sender comes first.
+ */
+public abstract class SubscriberMethod implements GenericEventListener {
+
+    private final Object target;
+    private final Class<? extends Event> eventClass;
+    private final String methodName;
+    private final boolean withSender;
+
+    /**
+     * @param withSender True if the method takes (Object sender, Event), false if it takes (Event).
+     */
+    protected SubscriberMethod(Object target, Class<? extends Event> eventClass, String methodName, boolean withSender) {
+        this.target = target;
+        this.eventClass = eventClass;
+        this.methodName = methodName;
+        this.withSender = withSender;
+    }
+
+    public Object getTarget() {
+        return target;
+    }
+
+    public Class<? extends Event> getEventClass() {
+        return eventClass;
+    }
+
+    public String getMethodName() {
+        return methodName;
+    }
+
+    public boolean isWithSender() {
+        return withSender;
+    }
+
+    public int hashCode() {
+        int hashCode = (System.identityHashCode(target) * 31 + methodName.hashCode()) * 31 + eventClass.getName().hashCode();
+        return withSender ? hashCode * 31 + 1 : hashCode * 31;
+    }
+
+    public boolean equals(Object other) {
+        if (!(other instanceof SubscriberMethod))
+            return false;
+        SubscriberMethod subscriberMethod = (SubscriberMethod) other;
+        return target == subscriberMethod.target && eventClass == subscriberMethod.eventClass && methodName.equals(subscriberMethod.methodName)
+                && withSender == subscriberMethod.withSender;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+   Copyright 2011 Espen Skjervold
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package javaEventing.internals;
+
+import javaEventing.interfaces.Event;
+import javaEventing.interfaces.GenericEventListener;
+import javaEventing.interfaces.UndeliveredEventHandler;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calls the receiver at most once per period. The first event of a period is delivered immediately; if more events
+ * arrive during the period, the last of them is delivered when the period ends, so the receiver always ends up
+ * seeing the most recent event.
+ */
+public class ThrottlingEventListener extends DelegatingEventListener {
+
+    private final GenericEventListener receiver;
+    private final ScheduledExecutorService scheduler;
+    private final long periodNanos;
+
+    private long lastDeliveryNanos;
+    private boolean hasDelivered;
+    private Object pendingSender;
+    private Event pendingEvent;
+    private ScheduledFuture<?> pendingDelivery;
+    private boolean cancelled;
+
+    public ThrottlingEventListener(GenericEventListener receiver, ScheduledExecutorService scheduler, long period, TimeUnit timeUnit) {
+        super(receiver);
+        this.receiver = receiver;
+        this.scheduler = scheduler;
+        this.periodNanos = timeUnit.toNanos(period);
+    }
+
+    public void eventTriggered(Object sender, Event event) {
+        synchronized (this) {
+            if (cancelled)
+                return;
+
+            long now = System.nanoTime();
+            long sinceLastDelivery = now - lastDeliveryNanos;
+
+            if (hasDelivered && sinceLastDelivery < periodNanos) {
+                pendingSender = sender;
+                pendingEvent = event;
+                if (pendingDelivery == null) {
+                    pendingDelivery = scheduler.schedule(new Runnable() {
+                        public void run() {
+                            deliverPendingEvent();
+                        }
+                    }, periodNanos - sinceLastDelivery, TimeUnit.NANOSECONDS);
+                }
+                return;
+            }
+
+            hasDelivered = true;
+            lastDeliveryNanos = now;
+        }
+        receiver.eventTriggered(sender, event);
+    }
+
+    private void deliverPendingEvent() {
+        Object sender;
+        Event event;
+        synchronized (this) {
+            pendingDelivery = null;
+            if (cancelled || pendingEvent == null)
+                return;
+            sender = pendingSender;
+            event = pendingEvent;
+            pendingSender = null;
+            pendingEvent = null;
+            lastDeliveryNanos = System.nanoTime();
+        }
+        receiver.eventTriggered(sender, event);
+    }
+
+    public synchronized void cancel() {
+        cancelled = true;
+        pendingSender = null;
+        pendingEvent = null;
+        if (pendingDelivery != null) {
+            pendingDelivery.cancel(false);
+            pendingDelivery = null;
+        }
+    }
+
+    public int reportPendingEvents(UndeliveredEventHandler handler) {
+        Object sender;
+        Event event;
+        synchronized (this) {
+            if (pendingEvent == null)
+                return 0;
+            sender = pendingSender;
+            event = pendingEvent;
+            pendingSender = null;
+            pendingEvent = null;
+        }
+        reportUndelivered(handler, sender, event, receiver);
+        return 1;
+    }
+}
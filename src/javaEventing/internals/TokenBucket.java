@@ -0,0 +1,77 @@
+/*
+   Copyright 2011 Espen Skjervold
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package javaEventing.internals;
+
+/**
+ * A token bucket: holds up to burst tokens, refilled at a fixed rate. Each permitted event takes one token, so events
+ * may come in bursts of up to burst events, but on average no faster than the rate.
+ */
+public class TokenBucket {
+
+    private final double tokensPerNano;
+    private final double capacity;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * Creates a full bucket.
+     * @param eventsPerSecond The rate at which tokens are refilled.
+     * @param burst The maximum number of tokens.
+     */
+    public TokenBucket(double eventsPerSecond, int burst) {
+        if (eventsPerSecond <= 0 || burst <= 0)
+            throw new IllegalArgumentException("eventsPerSecond and burst must be positive");
+        this.tokensPerNano = eventsPerSecond / 1e9;
+        this.capacity = burst;
+        this.tokens = burst;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Takes a token if there is one.
+     * @param now The current time, from System.nanoTime().
+     * @return true if a token was taken.
+     */
+    public synchronized boolean tryAcquire(long now) {
+        refill(now);
+        if (tokens < 1)
+            return false;
+        tokens -= 1;
+        return true;
+    }
+
+    /**
+     * Gives back a token taken for an event that was not triggered after all.
+     */
+    public synchronized void release() {
+        tokens = Math.min(capacity, tokens + 1);
+    }
+
+    /**
+     * Returns true if the bucket has refilled completely, in which case it is no different from a new one.
+     */
+    public synchronized boolean isFull(long now) {
+        refill(now);
+        return tokens >= capacity;
+    }
+
+    private void refill(long now) {
+        if (now > lastRefill) {
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+            lastRefill = now;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+   Copyright 2011 Espen Skjervold
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package javaEventing.internals;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.AbstractQueuedSynchronizer;
+
+/**
+ * A resettable latch recording whether an event has been triggered. Triggering sets the latch and unparks one waiter;
+ * a successful wait consumes the trigger again. Because the triggered state and the wait queue are both managed by
+ * the synchronizer, a trigger arriving between a waiter's check and its parking is never lost.
+ */
+public class TriggerLatch {
+
+    private final Sync sync = new Sync();
+
+    /**
+     * Sets the latch, releasing one waiting thread. Triggers arriving while the latch is already set are coalesced.
+     */
+    public void trigger() {
+        sync.release(1);
+    }
+
+    /**
+     * Consumes the trigger if the latch is set. Never blocks.
+     * @return true if the latch was set.
+     */
+    public boolean tryConsume() {
+        return sync.tryAcquire(1);
+    }
+
+    /**
+     * Waits until the latch is set, then consumes the trigger. If the thread is interrupted, the wait ends early and the
+     * interrupt status is kept.
+     * @param timeout The number of milliseconds to wait. If zero, it will never time out.
+     * @return true if the latch was set, false if the wait timed out or was interrupted.
+     */
+    public boolean await(long timeout) {
+        try {
+            if (timeout == 0) {
+                sync.acquireInterruptibly(1);
+                return true;
+            }
+            return sync.tryAcquireNanos(1, TimeUnit.MILLISECONDS.toNanos(timeout));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return tryConsume();
+        }
+    }
+
+    /**
+     * Clears the latch without waking anybody.
+     */
+    public void reset() {
+        sync.tryAcquire(1);
+    }
+
+    public boolean isTriggered() {
+        return sync.isSet();
+    }
+
+    /**
+     * State 1 means triggered. The state is not tied to an owning thread: any thread may consume a trigger set by any other.
+     */
+    private static class Sync extends AbstractQueuedSynchronizer {
+
+        private static final long serialVersionUID = 1L;
+
+        protected boolean tryAcquire(int ignored) {
+            return compareAndSetState(1, 0);
+        }
+
+        protected boolean tryRelease(int ignored) {
+            setState(1);
+            return true;
+        }
+
+        boolean isSet() {
+            return getState() == 1;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+   Copyright 2011 Espen Skjervold
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package javaEventing.internals;
+
+import javaEventing.interfaces.Event;
+import javaEventing.interfaces.GenericEventListener;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+/**
+ * Holds its receiver through a weak reference, so that registering the receiver does not keep it from being garbage
+ * collected. Once the receiver has been collected, events are ignored, and the reference shows up on the reference
+ * queue given at construction, from which the EventManagerInstance purges the subscription.
+ */
+public class WeakEventListener extends DelegatingEventListener {
+
+    private final ListenerReference reference;
+    private final Class<? extends Event> eventClass;
+
+    public WeakEventListener(GenericEventListener receiver, Class<? extends Event> eventClass, ReferenceQueue<GenericEventListener> referenceQueue) {
+        super(receiver);
+        this.reference = new ListenerReference(receiver, referenceQueue, this);
+        this.eventClass = eventClass;
+    }
+
+    public void eventTriggered(Object sender, Event event) {
+        GenericEventListener receiver = reference.get();
+        if (receiver != null)
+            receiver.eventTriggered(sender, event);
+    }
+
+    public boolean isCleared() {
+        return reference.get() == null;
+    }
+
+    public Class<? extends Event> getEventClass() {
+        return eventClass;
+    }
+
+    public void cancel() {
+        reference.clear();
+    }
+
+    /**
+     * The weak reference to the receiver, pointing back at the wrapper so the subscription can be found once it is cleared.
+     */
+    public static class ListenerReference extends WeakReference<GenericEventListener> {
+        private final WeakEventListener weakEventListener;
+
+        ListenerReference(GenericEventListener receiver, ReferenceQueue<GenericEventListener> referenceQueue, WeakEventListener weakEventListener) {
+            super(receiver, referenceQueue);
+            this.weakEventListener = weakEventListener;
+        }
+
+        public WeakEventListener getWeakEventListener() {
+            return weakEventListener;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+   Copyright 2011 Espen Skjervold
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package javaEventing.internals;
+
+import javaEventing.EventWindow;
+import javaEventing.WindowEvent;
+import javaEventing.interfaces.Event;
+import javaEventing.interfaces.EventAggregator;
+import javaEventing.interfaces.GenericEventListener;
+import javaEventing.interfaces.UndeliveredEventHandler;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects events into count or time based windows, and calls the receiver once per window with a WindowEvent.
+ * Tumbling windows with an aggregator only keep the running accumulator, not the events themselves.
+ * Windows are delivered one at a time, in the order they were closed, whichever thread closed them.
+ */
+public class WindowingEventListener extends DelegatingEventListener {
+
+    private final GenericEventListener receiver;
+    private final EventWindow window;
+    private final EventAggregator aggregator;
+    private final boolean tumbling;
+    private final ScheduledFuture<?> ticker;
+
+    private LinkedList<Event> events = new LinkedList<Event>();
+    private final LinkedList<Long> timestamps = new LinkedList<Long>();          // sliding time windows only
+    private final LinkedList<EventHistory.Entry> closedWindows = new LinkedList<EventHistory.Entry>();
+    private boolean delivering;
+    private Object accumulator;
+    private int eventCount;
+    private int eventsSinceLastWindow;
+    private Object lastSender;
+    private boolean cancelled;
+
+    public WindowingEventListener(GenericEventListener receiver, ScheduledExecutorService scheduler, EventWindow window, EventAggregator aggregator) {
+        super(receiver);
+        this.receiver = receiver;
+        this.window = window;
+        this.aggregator = aggregator;
+        this.tumbling = window.getSize() == window.getSlide();
+
+        if (window.isTimeBased()) {
+            ticker = scheduler.scheduleAtFixedRate(new Runnable() {
+                public void run() {
+                    closeTimeWindow();
+                }
+            }, window.getSlide(), window.getSlide(), TimeUnit.NANOSECONDS);
+        } else {
+            ticker = null;
+        }
+    }
+
+    public void eventTriggered(Object sender, Event event) {
+        synchronized (this) {
+            if (cancelled)
+                return;
+
+            lastSender = sender;
+            eventCount++;
+            eventsSinceLastWindow++;
+
+            if (tumbling && aggregator != null) {
+                accumulator = aggregator.aggregate(accumulator, event);
+            } else {
+                events.addLast(event);
+                if (!window.isTimeBased()) {
+                    if (events.size() > window.getSize())
+                        events.removeFirst();
+                } else if (!tumbling) {
+                    timestamps.addLast(System.nanoTime());
+                }
+            }
+
+            if (window.isTimeBased() || eventsSinceLastWindow != window.getSlide() || !closeWindow(sender))
+                return;
+        }
+        deliverClosedWindows();
+    }
+
+    private void closeTimeWindow() {
+        synchronized (this) {
+            if (cancelled)
+                return;
+
+            if (!tumbling) {
+                long oldest = System.nanoTime() - window.getSize();
+                while (!timestamps.isEmpty() && timestamps.getFirst() - oldest < 0) {
+                    timestamps.removeFirst();
+                    events.removeFirst();
+                }
+                eventCount = events.size();
+            }
+
+            if (eventCount == 0 || !closeWindow(lastSender))
+                return;
+        }
+        deliverClosedWindows();
+    }
+
+    /**
+     * Queues the event for the current window behind the windows closed before. Must be called while holding the lock.
+     * @return true if the calling thread is to deliver the closed windows, false if another thread is delivering them.
+     */
+    private boolean closeWindow(Object sender) {
+        closedWindows.addLast(new EventHistory.Entry(sender, createWindowEvent(), null));
+        if (delivering)
+            return false;
+        delivering = true;
+        return true;
+    }
+
+    private void deliverClosedWindows() {
+        while (true) {
+            EventHistory.Entry closedWindow;
+            synchronized (this) {
+                if (cancelled || closedWindows.isEmpty()) {
+                    delivering = false;
+                    return;
+                }
+                closedWindow = closedWindows.removeFirst();
+            }
+
+            try {
+                receiver.eventTriggered(closedWindow.getSender(), closedWindow.getEvent());
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    delivering = false;                    // the windows after it are delivered along with the next one
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Creates the event for the current window, and resets the state of tumbling windows. Must be called while holding the lock.
+     */
+    private WindowEvent createWindowEvent() {
+        WindowEvent windowEvent;
+        eventsSinceLastWindow = 0;
+
+        if (tumbling && aggregator != null) {
+            windowEvent = new WindowEvent(accumulator, eventCount);
+            accumulator = null;
+        } else if (aggregator != null) {
+            Object result = null;
+            for (Event event : events)
+                result = aggregator.aggregate(result, event);
+            windowEvent = new WindowEvent(result, events.size());
+        } else if (tumbling) {
+            windowEvent = new WindowEvent(events);
+            events = new LinkedList<Event>();
+        } else {
+            windowEvent = new WindowEvent(new ArrayList<Event>(events));
+        }
+
+        if (tumbling)
+            eventCount = 0;
+
+        return windowEvent;
+    }
+
+    /**
+     * Hands the closed windows not delivered yet, and the current window if it has new events, to the handler.
+     */
+    public int reportPendingEvents(UndeliveredEventHandler handler) {
+        List<EventHistory.Entry> undelivered;
+        synchronized (this) {
+            if (!cancelled && eventsSinceLastWindow > 0 && eventCount > 0)
+                closedWindows.addLast(new EventHistory.Entry(lastSender, createWindowEvent(), null));
+            undelivered = new ArrayList<EventHistory.Entry>(closedWindows);
+            closedWindows.clear();
+        }
+        for (EventHistory.Entry entry : undelivered)
+            reportUndelivered(handler, entry.getSender(), entry.getEvent(), receiver);
+        return undelivered.size();
+    }
+
+    public synchronized void cancel() {
+        cancelled = true;
+        events.clear();
+        timestamps.clear();
+        closedWindows.clear();
+        accumulator = null;
+        if (ticker != null)
+            ticker.cancel(false);
+    }
+}
@@ -0,0 +1,175 @@
+/*
+   Copyright 2011 Espen Skjervold
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package javaEventing.processing;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Annotation processor generating, for each class with Subscribe annotated methods, a SubscriberFactory whose listeners
+ * call the methods directly, without reflection. Put the library on the processor path of javac to enable it; it is
+ * registered in META-INF/services.
+ * Classes whose handlers cannot be called from another class of the same package, such as private methods or private
+ * nested classes, are skipped and handled through reflection at runtime.
+ */
+public class SubscribeProcessor extends AbstractProcessor {
+
+    private static final String SUBSCRIBE = "javaEventing.Subscribe";
+    private static final String EVENT = "javaEventing.interfaces.Event";
+
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(SUBSCRIBE);
+    }
+
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement subscribe = processingEnv.getElementUtils().getTypeElement(SUBSCRIBE);
+        if (subscribe == null)
+            return false;
+
+        Map<TypeElement, List<ExecutableElement>> methodsByClass = new LinkedHashMap<TypeElement, List<ExecutableElement>>();
+        for (Element element : roundEnv.getElementsAnnotatedWith(subscribe)) {
+            ExecutableElement method = (ExecutableElement) element;
+            if (!isValid(method))
+                continue;
+
+            TypeElement declaringClass = (TypeElement) method.getEnclosingElement();
+            List<ExecutableElement> methods = methodsByClass.get(declaringClass);
+            if (methods == null) {
+                methods = new ArrayList<ExecutableElement>();
+                methodsByClass.put(declaringClass, methods);
+            }
+            methods.add(method);
+        }
+
+        for (Map.Entry<TypeElement, List<ExecutableElement>> entry : methodsByClass.entrySet()) {
+            if (isAccessible(entry.getKey(), entry.getValue()))
+                generateFactory(entry.getKey(), entry.getValue());
+        }
+        return true;
+    }
+
+    private boolean isValid(ExecutableElement method) {
+        List<? extends VariableElement> parameters = method.getParameters();
+        TypeMirror event = processingEnv.getElementUtils().getTypeElement(EVENT).asType();
+
+        boolean valid = !method.getModifiers().contains(Modifier.STATIC)
+                && (parameters.size() == 1 || (parameters.size() == 2 && processingEnv.getTypeUtils().erasure(parameters.get(0).asType()).toString().equals("java.lang.Object")))
+                && processingEnv.getTypeUtils().isAssignable(erasedType(parameters.get(parameters.size() - 1)), event);
+        if (!valid) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "@Subscribe method must be an instance method taking (Event) or (Object sender, Event)", method);
+        }
+        return valid;
+    }
+
+    /**
+     * Returns true if the generated class, in the same package, can call the methods of the class.
+     */
+    private boolean isAccessible(TypeElement declaringClass, List<ExecutableElement> methods) {
+        for (ExecutableElement method : methods) {
+            if (method.getModifiers().contains(Modifier.PRIVATE))
+                return false;
+        }
+
+        Element element = declaringClass;
+        while (element.getKind() != ElementKind.PACKAGE) {
+            if (element instanceof TypeElement) {
+                TypeElement type = (TypeElement) element;
+                if (type.getModifiers().contains(Modifier.PRIVATE) || type.getNestingKind() == NestingKind.LOCAL
+                        || type.getNestingKind() == NestingKind.ANONYMOUS)
+                    return false;
+            }
+            element = element.getEnclosingElement();
+        }
+        return true;
+    }
+
+    private TypeMirror erasedType(VariableElement parameter) {
+        return processingEnv.getTypeUtils().erasure(parameter.asType());
+    }
+
+    private void generateFactory(TypeElement declaringClass, List<ExecutableElement> methods) {
+        PackageElement packageElement = processingEnv.getElementUtils().getPackageOf(declaringClass);
+        String packageName = packageElement.isUnnamed() ? "" : packageElement.getQualifiedName().toString();
+        String binaryName = processingEnv.getElementUtils().getBinaryName(declaringClass).toString();
+        String simpleBinaryName = packageName.length() == 0 ? binaryName : binaryName.substring(packageName.length() + 1);
+        String factoryName = simpleBinaryName.replace('$', '_') + "_Subscribers";
+        String targetType = processingEnv.getTypeUtils().erasure(declaringClass.asType()).toString();
+
+        StringBuilder source = new StringBuilder();
+        if (packageName.length() > 0)
+            source.append("package ").append(packageName).append(";\n\n");
+        source.append("/** Generated by javaEventing.processing.SubscribeProcessor from ").append(targetType).append(". */\n");
+        source.append("public class ").append(factoryName).append(" implements javaEventing.internals.SubscriberFactory {\n\n");
+        source.append("    public java.util.List<javaEventing.internals.SubscriberMethod> createSubscribers(Object target) {\n");
+        source.append("        final ").append(targetType).append(" subscriber = (").append(targetType).append(") target;\n");
+        source.append("        java.util.List<javaEventing.internals.SubscriberMethod> subscribers = new java.util.ArrayList<javaEventing.internals.SubscriberMethod>();\n");
+        for (ExecutableElement method : methods) {
+            List<? extends VariableElement> parameters = method.getParameters();
+            String eventType = erasedType(parameters.get(parameters.size() - 1)).toString();
+            String methodName = method.getSimpleName().toString();
+
+            source.append("        subscribers.add(new javaEventing.internals.SubscriberMethod(target, ").append(eventType).append(".class, \"")
+                    .append(methodName).append("\", ").append(parameters.size() == 2).append(") {\n");
+            source.append("            public void eventTriggered(Object sender, javaEventing.interfaces.Event event) {\n");
+            source.append("                subscriber.").append(methodName).append("(").append(parameters.size() == 2 ? "sender, " : "")
+                    .append("(").append(eventType).append(") event);\n");
+            source.append("            }\n");
+            source.append("        });\n");
+        }
+        source.append("        return subscribers;\n");
+        source.append("    }\n");
+        source.append("}\n");
+
+        try {
+            String qualifiedName = packageName.length() == 0 ? factoryName : packageName + "." + factoryName;
+            JavaFileObject file = processingEnv.getFiler().createSourceFile(qualifiedName, declaringClass);
+            Writer writer = file.openWriter();
+            try {
+                writer.write(source.toString());
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not generate " + factoryName + ": " + e.getMessage(), declaringClass);
+        }
+    }
+}